@@ -0,0 +1,37 @@
+/** Records events with JFR, see {@link EventRecorder}. */
+class JfrEventRecorder implements EventRecorder {
+    @Override
+    public Object beginStage() {
+        StageEvent event = new StageEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void commitStage(Object e, String name, long items, long size, long cpuNanos) {
+        StageEvent event = (StageEvent) e;
+        event.end();
+        event.stage = name;
+        event.items = items;
+        event.size = size;
+        event.cpuTime = cpuNanos;
+        event.commit();
+    }
+
+    @Override
+    public Object beginClass() {
+        return SlowClassEvent.start();
+    }
+
+    @Override
+    public void commitClass(Object e, String className, long size, int constantsAdded) {
+        SlowClassEvent event = (SlowClassEvent) e;
+        event.end();
+        if (event.shouldCommit()) {
+            event.className = className;
+            event.size = size;
+            event.constantsAdded = constantsAdded;
+            event.commit();
+        }
+    }
+}
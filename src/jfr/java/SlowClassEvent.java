@@ -0,0 +1,34 @@
+import jdk.jfr.*;
+
+/**
+ * JFR event for a class that took long to remap. Only classes above the threshold are
+ * recorded; it can be changed in the recording settings.
+ */
+@Name("mcdeobf.SlowClass")
+@Label("Slow Class")
+@Category("mc-deobf")
+@Description("A class that took long to remap")
+@Threshold("5 ms")
+@StackTrace(false)
+class SlowClassEvent extends Event {
+    // only used to ask whether the event is enabled in any recording
+    private static final SlowClassEvent PROBE = new SlowClassEvent();
+
+    @Label("Class")
+    String className;
+
+    @Label("Size")
+    @DataAmount
+    long size;
+
+    @Label("Constants Added")
+    int constantsAdded;
+
+    /** Returns a started event, or null if no recording wants it. */
+    static SlowClassEvent start() {
+        if (!PROBE.isEnabled()) return null;
+        SlowClassEvent event = new SlowClassEvent();
+        event.begin();
+        return event;
+    }
+}
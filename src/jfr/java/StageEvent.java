@@ -0,0 +1,22 @@
+import jdk.jfr.*;
+
+/** JFR event for one stage of a run, see {@link RunReport}. */
+@Name("mcdeobf.Stage")
+@Label("Stage")
+@Category("mc-deobf")
+@Description("A stage of a deobfuscation run")
+@StackTrace(false)
+class StageEvent extends Event {
+    @Label("Stage")
+    String stage;
+
+    @Label("Items")
+    long items;
+
+    @Label("Size")
+    long size;
+
+    @Label("CPU Time")
+    @Timespan
+    long cpuTime;
+}
@@ -0,0 +1,91 @@
+import org.apache.bcel.classfile.ClassParser;
+
+import java.io.ByteArrayInputStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Implements {@link bench.Hooks} on top of the deobfuscator, see there. */
+public class BenchHooks implements bench.Hooks {
+    private static class Index {
+        final Map<String, Remapper.ClassMapping> obfuscatedMappings;
+        final Map<String, String> inverseClassNameMap = new HashMap<>();
+        final SignatureMapper signatures;
+        final MemberResolver resolver;
+
+        Index(String mappingFilePath, List<byte[]> classFiles) throws Exception {
+            SymbolTable symbols = new SymbolTable();
+            MappingIndexBuilder builder = new MappingIndexBuilder(symbols);
+            new ProguardMappingParser(mappingFilePath).accept(builder);
+            obfuscatedMappings = builder.getMappings();
+            Map<String, String> classNameMap = new HashMap<>();
+            obfuscatedMappings.forEach((obfuscatedName, cm) -> {
+                classNameMap.put(obfuscatedName, cm.originalName);
+                inverseClassNameMap.put(cm.originalName, obfuscatedName);
+            });
+            signatures = new SignatureMapper(classNameMap, SignatureMapper.DEFAULT_CACHE_SIZE);
+            Map<String, String[]> hierarchy = new ConcurrentHashMap<>();
+            List<ClassHeader> headers = new ArrayList<>();
+            for (byte[] classFile : classFiles) {
+                ClassHeader header = ClassHeader.readWithMembers(new ByteArrayInputStream(classFile));
+                header.addTo(hierarchy);
+                headers.add(header);
+            }
+            try (WorkPool pool = new WorkPool(1)) {
+                ConflictResolver.run(pool, headers, obfuscatedMappings, signatures);
+                resolver = new MemberResolver(obfuscatedMappings, hierarchy, symbols, pool);
+            }
+        }
+    }
+
+    @Override
+    public Object parse(String filePath, String format) throws Exception {
+        return MappingParser.open(filePath, format).parse();
+    }
+
+    @Override
+    public Object newSignatureMapper(Map<String, String> classNameMap, int maxCacheSize) {
+        return new SignatureMapper(classNameMap, maxCacheSize);
+    }
+
+    @Override
+    public String mapSignature(Object signatureMapper, String signature) {
+        return ((SignatureMapper) signatureMapper).map(signature);
+    }
+
+    @Override
+    public Object index(String mappingFilePath, List<byte[]> classFiles) throws Exception {
+        return new Index(mappingFilePath, classFiles);
+    }
+
+    @Override
+    public Object getSignatureMapper(Object index) {
+        return ((Index) index).signatures;
+    }
+
+    @Override
+    public byte[] remapBcel(Object index, byte[] classFile) throws Exception {
+        Index idx = (Index) index;
+        Remapper remapper = new Remapper(idx.obfuscatedMappings, idx.signatures, idx.inverseClassNameMap, idx.resolver,
+                new ClassParser(new ByteArrayInputStream(classFile), null).parse());
+        remapper.remap();
+        return remapper.dump();
+    }
+
+    @Override
+    public byte[] remapDirect(Object index, byte[] classFile) {
+        Index idx = (Index) index;
+        ClassRewriter rewriter = new ClassRewriter(idx.signatures, idx.inverseClassNameMap, idx.resolver, classFile);
+        rewriter.remap();
+        return rewriter.dump();
+    }
+
+    @Override
+    public String resolveField(Object index, String obfuscatedClassName, String name) {
+        return ((Index) index).resolver.mapFieldName(obfuscatedClassName, name);
+    }
+
+    @Override
+    public String resolveMethod(Object index, String obfuscatedClassName, String name, String desc) {
+        return ((Index) index).resolver.mapMethodName(obfuscatedClassName, name, desc);
+    }
+}
@@ -0,0 +1,166 @@
+package bench;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.generic.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * A synthetic obfuscated program and its mapping. Class {@code i} is called {@code c<i>} and was
+ * {@code net/example/Thing<i>}. Classes form chains of {@code depth} classes, each extending the
+ * previous one. Field {@code j} is {@code int f<j>}, was {@code field<j>}; method {@code j} is
+ * {@code c<i> m<j>(int, c<r>)}, was {@code method<j>}, where {@code r} is a fixed other class. Each
+ * method reads a field of its class, calls the next method of its class and the first method of
+ * its superclass through its own class, and the first method of class {@code r}, so the classes
+ * have member references within the class, through the hierarchy and to other classes.
+ */
+final class Corpus {
+    final int classCount;
+    final int depth;
+    private final int[] fields;
+    private final int[] methods;
+
+    Corpus(int classCount, int depth, int fields, int methods) {
+        this.classCount = classCount;
+        this.depth = depth;
+        this.fields = new int[classCount];
+        this.methods = new int[classCount];
+        Arrays.fill(this.fields, fields);
+        Arrays.fill(this.methods, methods);
+    }
+
+    /** Changes the number of members of one class. */
+    Corpus setMembers(int i, int fields, int methods) {
+        this.fields[i] = fields;
+        this.methods[i] = methods;
+        return this;
+    }
+
+    static String name(int i) {
+        return "c" + i;
+    }
+
+    static String originalName(int i) {
+        return "net/example/Thing" + i;
+    }
+
+    int fieldCount(int i) {
+        return fields[i];
+    }
+
+    int methodCount(int i) {
+        return methods[i];
+    }
+
+    /** Returns the superclass of class {@code i}, or -1 for java/lang/Object. */
+    int parent(int i) {
+        return i % depth == 0 ? -1 : i - 1;
+    }
+
+    int ref(int i) {
+        return (i * 7 + 3) % classCount;
+    }
+
+    String methodDescriptor(int i, boolean original) {
+        String self = original ? originalName(i) : name(i);
+        String other = original ? originalName(ref(i)) : name(ref(i));
+        return "(IL" + other + ";)L" + self + ";";
+    }
+
+    /** Writes the mapping in ProGuard format. */
+    void writeProguard(Path path) {
+        try (Writer w = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < classCount; i++) {
+                String self = originalName(i).replace('/', '.');
+                String other = originalName(ref(i)).replace('/', '.');
+                w.write(self + " -> " + name(i) + ":\n");
+                for (int j = 0; j < fields[i]; j++) {
+                    w.write("    int field" + j + " -> f" + j + "\n");
+                }
+                for (int j = 0; j < methods[i]; j++) {
+                    w.write("    " + (j + 1) + ":" + (j + 1) + ":" + self + " method" + j + "(int," + other + ") -> m" + j + "\n");
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Writes the mapping in SRG format. */
+    void writeSrg(Path path) {
+        try (Writer w = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < classCount; i++) {
+                w.write("CL: " + name(i) + " " + originalName(i) + "\n");
+            }
+            for (int i = 0; i < classCount; i++) {
+                for (int j = 0; j < fields[i]; j++) {
+                    w.write("FD: " + name(i) + "/f" + j + " " + originalName(i) + "/field" + j + "\n");
+                }
+            }
+            for (int i = 0; i < classCount; i++) {
+                for (int j = 0; j < methods[i]; j++) {
+                    w.write("MD: " + name(i) + "/m" + j + " " + methodDescriptor(i, false) + " "
+                            + originalName(i) + "/method" + j + " " + methodDescriptor(i, true) + "\n");
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Generates the obfuscated class file of class {@code i}. */
+    byte[] generateClass(int i) {
+        String self = name(i);
+        int parent = parent(i);
+        int r = ref(i);
+        ClassGen cg = new ClassGen(self, parent < 0 ? "java.lang.Object" : name(parent), self + ".java",
+                Const.ACC_PUBLIC | Const.ACC_SUPER, null);
+        ConstantPoolGen cp = cg.getConstantPool();
+        InstructionFactory factory = new InstructionFactory(cg, cp);
+        ObjectType selfType = new ObjectType(self);
+        ObjectType otherType = new ObjectType(name(r));
+        for (int j = 0; j < fields[i]; j++) {
+            cg.addField(new FieldGen(Const.ACC_PUBLIC, Type.INT, "f" + j, cp).getField());
+        }
+        for (int j = 0; j < methods[i]; j++) {
+            InstructionList il = new InstructionList();
+            if (fields[i] > 0) {
+                il.append(InstructionFactory.createLoad(Type.OBJECT, 0));
+                il.append(factory.createFieldAccess(self, "f" + (j % fields[i]), Type.INT, Const.GETFIELD));
+                il.append(InstructionConst.POP);
+            }
+            appendCall(il, factory, self, "m" + (j + 1) % methods[i], selfType, otherType, 0);
+            if (parent >= 0 && methods[parent] > 0) {
+                appendCall(il, factory, self, "m0", new ObjectType(name(parent)), new ObjectType(name(ref(parent))), 0);
+            }
+            if (methods[r] > 0) {
+                appendCall(il, factory, name(r), "m0", otherType, new ObjectType(name(ref(r))), 2);
+            }
+            il.append(InstructionFactory.createLoad(Type.OBJECT, 0));
+            il.append(InstructionFactory.createReturn(Type.OBJECT));
+            MethodGen mg = new MethodGen(Const.ACC_PUBLIC, selfType, new Type[] { Type.INT, otherType },
+                    new String[] { "n", "other" }, "m" + j, self, il, cp);
+            mg.setMaxStack();
+            mg.setMaxLocals();
+            cg.addMethod(mg.getMethod());
+            il.dispose();
+        }
+        return cg.getJavaClass().getBytes();
+    }
+
+    // calls owner.name(int, argType) returning returnType on the object in local variable receiver
+    private static void appendCall(InstructionList il, InstructionFactory factory, String owner, String name,
+                                   Type returnType, Type argType, int receiver) {
+        il.append(InstructionFactory.createLoad(Type.OBJECT, receiver));
+        il.append(InstructionFactory.createLoad(Type.INT, 1));
+        il.append(InstructionConst.ACONST_NULL);
+        il.append(factory.createInvoke(owner, name, returnType, new Type[] { Type.INT, argType }, Const.INVOKEVIRTUAL));
+        il.append(InstructionConst.POP);
+    }
+}
@@ -0,0 +1,77 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves member names through the class hierarchy, as done for every field and method
+ * reference. Classes form chains of {@code depth} classes; each lookup names a member of a class
+ * or one of its ancestors, or a member that is not mapped. Results are per lookup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HierarchyBenchmark {
+    private static final int LOOKUPS = 1024;
+
+    @Param({ "1", "4", "16" })
+    int depth;
+
+    private Hooks hooks;
+    private Object index;
+    private final String[] owners = new String[LOOKUPS];
+    private final String[] names = new String[LOOKUPS];
+    private final String[] descriptors = new String[LOOKUPS]; // null for fields
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        hooks = Hooks.get();
+        Corpus corpus = new Corpus(256, depth, 8, 16);
+        List<byte[]> classFiles = new ArrayList<>();
+        for (int i = 0; i < corpus.classCount; i++) {
+            classFiles.add(corpus.generateClass(i));
+        }
+        Path mapping = Files.createTempFile("mc-deobf-bench", ".txt");
+        try {
+            corpus.writeProguard(mapping);
+            index = hooks.index(mapping.toString(), classFiles);
+        } finally {
+            Files.delete(mapping);
+        }
+        Object signatures = hooks.getSignatureMapper(index);
+        for (int k = 0; k < LOOKUPS; k++) {
+            int i = k * 37 % corpus.classCount;
+            // the class itself or one of its ancestors
+            int declaring = i;
+            for (int n = k % depth; n > 0 && corpus.parent(declaring) >= 0; n--) {
+                declaring = corpus.parent(declaring);
+            }
+            owners[k] = Corpus.name(i);
+            if (k % 2 == 0) {
+                names[k] = "f" + k % corpus.fieldCount(declaring);
+            } else {
+                names[k] = k % 7 == 0 ? "unmapped" : "m" + k % corpus.methodCount(declaring);
+                descriptors[k] = hooks.mapSignature(signatures, corpus.methodDescriptor(declaring, false));
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void resolve(Blackhole blackhole) {
+        for (int k = 0; k < LOOKUPS; k++) {
+            blackhole.consume(descriptors[k] == null
+                    ? hooks.resolveField(index, owners[k], names[k])
+                    : hooks.resolveMethod(index, owners[k], names[k], descriptors[k]));
+        }
+    }
+}
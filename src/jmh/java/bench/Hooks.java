@@ -0,0 +1,50 @@
+package bench;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Operations of the deobfuscator measured by the benchmarks. The deobfuscator lives in the unnamed
+ * package, which code in a named package cannot import, and JMH does not accept benchmarks in the
+ * unnamed package. So the benchmarks call it through this interface, implemented by the top-level
+ * class {@code BenchHooks} and looked up once per trial; the calls are monomorphic and inlined like
+ * direct calls. Objects of deobfuscator types are passed around as {@code Object}.
+ */
+public interface Hooks {
+    static Hooks get() {
+        try {
+            return (Hooks) Class.forName("BenchHooks").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Parses a mapping file into a list of class mappings. */
+    Object parse(String filePath, String format) throws Exception;
+
+    /** Creates a {@code SignatureMapper}; a cache size of 0 disables the cache. */
+    Object newSignatureMapper(Map<String, String> classNameMap, int maxCacheSize);
+
+    String mapSignature(Object signatureMapper, String signature);
+
+    /**
+     * Loads a ProGuard mapping file and builds everything needed to remap the given classes, as a
+     * run of the deobfuscator does before remapping: the hierarchy, conflict renames and the
+     * member index.
+     */
+    Object index(String mappingFilePath, List<byte[]> classFiles) throws Exception;
+
+    /** Returns the signature mapper of an index. */
+    Object getSignatureMapper(Object index);
+
+    /** Parses, remaps and writes one class with BCEL. */
+    byte[] remapBcel(Object index, byte[] classFile) throws Exception;
+
+    /** Remaps one class with the direct class file rewriter. */
+    byte[] remapDirect(Object index, byte[] classFile);
+
+    String resolveField(Object index, String obfuscatedClassName, String name);
+
+    /** {@code desc} is the descriptor with original class names. */
+    String resolveMethod(Object index, String obfuscatedClassName, String name, String desc);
+}
@@ -0,0 +1,56 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/** Parses a generated mapping of {@code classes} classes with 8 fields and 24 methods each. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MappingParserBenchmark {
+    @Param({ "1000", "10000" })
+    int classes;
+
+    private Hooks hooks;
+    private Path dir;
+    private String proguardPath;
+    private String srgPath;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        hooks = Hooks.get();
+        dir = Files.createTempDirectory("mc-deobf-bench");
+        Corpus corpus = new Corpus(classes, 4, 8, 24);
+        Path proguard = dir.resolve("mapping.txt");
+        Path srg = dir.resolve("mapping.srg");
+        corpus.writeProguard(proguard);
+        corpus.writeSrg(srg);
+        proguardPath = proguard.toString();
+        srgPath = srg.toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.delete(Paths.get(proguardPath));
+        Files.delete(Paths.get(srgPath));
+        Files.delete(dir);
+    }
+
+    @Benchmark
+    public Object proguard() throws Exception {
+        return hooks.parse(proguardPath, "proguard");
+    }
+
+    @Benchmark
+    public Object srg() throws Exception {
+        return hooks.parse(srgPath, "srg");
+    }
+}
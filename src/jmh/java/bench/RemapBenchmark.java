@@ -0,0 +1,65 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remaps one class of a generated program and writes it back. The class has 4 fields and 8
+ * methods ({@code small}), 40 and 120 ({@code medium}) or 500 and 2000 ({@code huge}) and extends
+ * three other classes. {@code bcel} includes parsing the class into BCEL objects, as each class
+ * is parsed again for remapping.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RemapBenchmark {
+    private static final int TARGET = 3;
+
+    @Param({ "small", "medium", "huge" })
+    String size;
+
+    @Param({ "bcel", "direct" })
+    String engine;
+
+    private Hooks hooks;
+    private Object index;
+    private byte[] classFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        hooks = Hooks.get();
+        Corpus corpus = new Corpus(200, 4, 8, 16);
+        switch (size) {
+            case "small": corpus.setMembers(TARGET, 4, 8); break;
+            case "medium": corpus.setMembers(TARGET, 40, 120); break;
+            case "huge": corpus.setMembers(TARGET, 500, 2000); break;
+            default: throw new IllegalArgumentException(size);
+        }
+        List<byte[]> classFiles = new ArrayList<>();
+        for (int i = 0; i < corpus.classCount; i++) {
+            classFiles.add(corpus.generateClass(i));
+        }
+        classFile = classFiles.get(TARGET);
+        Path mapping = Files.createTempFile("mc-deobf-bench", ".txt");
+        try {
+            corpus.writeProguard(mapping);
+            index = hooks.index(mapping.toString(), classFiles);
+        } finally {
+            Files.delete(mapping);
+        }
+    }
+
+    @Benchmark
+    public byte[] remap() throws Exception {
+        return engine.equals("direct") ? hooks.remapDirect(index, classFile) : hooks.remapBcel(index, classFile);
+    }
+}
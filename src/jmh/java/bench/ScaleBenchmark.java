@@ -0,0 +1,210 @@
+package bench;
+
+import org.apache.commons.cli.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * End-to-end scaling benchmark. Runs the deobfuscator on a {@link ScaleCorpus}, generated first
+ * if the corpus directory has none, with each engine and thread count in a JVM of its own, so
+ * every run pays for startup and warmup like a real one and has its own peak memory. The
+ * throughput, GC time and peak resident memory of each run are taken from its
+ * {@code --report}. Of several runs of a configuration, the one with the median wall time is
+ * kept. The results are printed as a table and written to {@code scale-result.csv}.
+ *
+ * <pre>java -cp target/benchmarks.jar bench.ScaleBenchmark --corpus corpus -n 1000000 --threads 1,2,4,8 --jvm -Xmx16g</pre>
+ */
+public final class ScaleBenchmark {
+    private static final Pattern CLASS_COUNT = Pattern.compile("\"classes\": \\{\\s*\"count\": (\\d+)");
+
+    // the measurements of one run
+    private static class Result {
+        final String engine;
+        final int threads;
+        final double wallMs; // as reported by the run, without JVM startup
+        final double processMs;
+        final long classes;
+        final long gcCount;
+        final double gcMs;
+        final long peakRss; // bytes, or -1 if unknown
+
+        Result(String engine, int threads, double processMs, String report) {
+            this.engine = engine;
+            this.threads = threads;
+            this.processMs = processMs;
+            wallMs = number(report, "wallMs");
+            Matcher m = CLASS_COUNT.matcher(report);
+            classes = m.find() ? Long.parseLong(m.group(1)) : 0;
+            gcCount = (long) number(report, "gcCount");
+            gcMs = number(report, "gcMs");
+            peakRss = (long) number(report, "peakRssBytes");
+        }
+
+        double classesPerSecond() {
+            return wallMs > 0 ? classes * 1000.0 / wallMs : 0;
+        }
+    }
+
+    private final Path corpus;
+    private final String format;
+    private final List<String> jvmArgs;
+    private final List<String> extraArgs;
+    private final Path workDir;
+
+    private ScaleBenchmark(Path corpus, String format, List<String> jvmArgs, List<String> extraArgs, Path workDir) {
+        this.corpus = corpus;
+        this.format = format;
+        this.jvmArgs = jvmArgs;
+        this.extraArgs = extraArgs;
+        this.workDir = workDir;
+    }
+
+    // the first number with the given key in a report, or -1
+    private static double number(String json, String key) {
+        Matcher m = Pattern.compile("\"" + key + "\": (-?[0-9.]+(?:[eE][-+]?[0-9]+)?)").matcher(json);
+        return m.find() ? Double.parseDouble(m.group(1)) : -1;
+    }
+
+    private static List<String> split(String s) {
+        List<String> parts = new ArrayList<>();
+        for (String part : s.trim().split("\\s+")) {
+            if (!part.isEmpty()) parts.add(part);
+        }
+        return parts;
+    }
+
+    // runs the deobfuscator once in a new JVM
+    private Result run(String engine, int threads) throws IOException, InterruptedException {
+        Path output = workDir.resolve("out.jar");
+        Path report = workDir.resolve("report.json");
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmArgs);
+        command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"), "Main",
+                "-m", corpus.resolve(format.equals("srg") ? "mapping.srg" : "mapping.txt").toString(), "-f", format,
+                "-i", corpus.resolve("corpus.jar").toString(), "-o", output.toString(),
+                "-e", engine, "-t", Integer.toString(threads), "--report", report.toString()));
+        command.addAll(extraArgs);
+        Files.deleteIfExists(output);
+        Files.deleteIfExists(report);
+        Path log = workDir.resolve("run.log");
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log.toFile()).start();
+        int exit = process.waitFor();
+        double processMs = (System.nanoTime() - start) / 1e6;
+        if (exit != 0) {
+            throw new IOException("run with " + engine + " and " + threads + " threads failed, see " + log);
+        }
+        Result result = new Result(engine, threads, processMs,
+                new String(Files.readAllBytes(report), StandardCharsets.UTF_8));
+        Files.deleteIfExists(output);
+        return result;
+    }
+
+    private static String mb(long bytes) {
+        return bytes < 0 ? "-" : Long.toString(bytes >> 20);
+    }
+
+    public static void main(String[] args) {
+        Options options = new Options();
+        options.addRequiredOption(null, "corpus", true, "corpus directory, generated if it has no corpus.jar");
+        options.addOption("n", null, true, "number of classes of a generated corpus (default: 100000)");
+        options.addOption(null, "threads", true, "comma-separated thread counts (default: powers of two up to the "
+                + "number of processors)");
+        options.addOption(null, "runs", true, "runs of each configuration, the median is kept (default: 3)");
+        options.addOption("e", null, true, "comma-separated engines (default: bcel,direct)");
+        options.addOption("f", null, true, "mapping format: proguard (default) or srg");
+        options.addOption(null, "jvm", true, "options of the JVMs that run the deobfuscator, e.g. -Xmx8g");
+        options.addOption(null, "args", true, "more options for the deobfuscator, e.g. -p");
+        options.addOption(null, "result", true, "CSV file for the results (default: scale-result.csv)");
+        try {
+            CommandLine cl = new DefaultParser().parse(options, args);
+            Path corpusDir = Paths.get(cl.getOptionValue("corpus"));
+            if (!Files.isRegularFile(corpusDir.resolve("corpus.jar"))) {
+                int n = Integer.parseInt(cl.getOptionValue('n', "100000"));
+                System.err.printf("generating a corpus of %d classes in %s...\n", n, corpusDir);
+                new ScaleCorpus(n, 16, 6, 12).write(corpusDir);
+            }
+            List<Integer> threadCounts = new ArrayList<>();
+            if (cl.hasOption("threads")) {
+                for (String t : cl.getOptionValue("threads").split(",")) {
+                    threadCounts.add(Integer.parseInt(t.trim()));
+                }
+            } else {
+                int nproc = Runtime.getRuntime().availableProcessors();
+                for (int t = 1; t < nproc; t *= 2) {
+                    threadCounts.add(t);
+                }
+                threadCounts.add(nproc);
+            }
+            int runs = Integer.parseInt(cl.getOptionValue("runs", "3"));
+            if (runs < 1 || threadCounts.stream().anyMatch(t -> t < 1)) {
+                throw new ParseException("runs and thread counts must be positive");
+            }
+            String format = cl.getOptionValue('f', "proguard");
+            if (!format.equals("proguard") && !format.equals("srg")) {
+                throw new ParseException("unknown format: " + format);
+            }
+            List<String> engines = Arrays.asList(cl.getOptionValue('e', "bcel,direct").split(","));
+
+            Path workDir = Files.createTempDirectory("mc-deobf-scale");
+            ScaleBenchmark bench = new ScaleBenchmark(corpusDir, format, split(cl.getOptionValue("jvm", "")),
+                    split(cl.getOptionValue("args", "")), workDir);
+            // writes the binary mapping cache, which the measured runs then load like later real runs
+            System.err.println("warmup run...");
+            bench.run(engines.get(0), threadCounts.get(threadCounts.size() - 1));
+
+            List<Result> results = new ArrayList<>();
+            for (String engine : engines) {
+                for (int threads : threadCounts) {
+                    List<Result> samples = new ArrayList<>();
+                    for (int r = 0; r < runs; r++) {
+                        samples.add(bench.run(engine, threads));
+                    }
+                    samples.sort(Comparator.comparingDouble(s -> s.wallMs));
+                    Result median = samples.get(samples.size() / 2);
+                    System.err.printf("%s, %d threads: %.0fms, %.0f classes/s\n", engine, threads, median.wallMs,
+                            median.classesPerSecond());
+                    results.add(median);
+                }
+            }
+            Files.deleteIfExists(workDir.resolve("run.log"));
+            Files.deleteIfExists(workDir.resolve("report.json"));
+            Files.deleteIfExists(workDir);
+
+            System.out.printf("%-8s %7s %10s %10s %12s %8s %8s %8s %9s\n", "engine", "threads", "wall ms", "process ms",
+                    "classes/s", "speedup", "gc", "gc ms", "rss MB");
+            String resultPath = cl.getOptionValue("result", "scale-result.csv");
+            try (Writer csv = Files.newBufferedWriter(Paths.get(resultPath), StandardCharsets.UTF_8)) {
+                csv.write("engine,threads,wallMs,processMs,classes,classesPerSecond,speedup,gcCount,gcMs,peakRssBytes\n");
+                for (Result r : results) {
+                    Result base = results.stream().filter(b -> b.engine.equals(r.engine)).findFirst().get();
+                    double speedup = r.wallMs > 0 ? base.wallMs / r.wallMs : 0;
+                    System.out.printf("%-8s %7d %10.0f %10.0f %12.0f %8.2f %8d %8.0f %9s\n", r.engine, r.threads, r.wallMs,
+                            r.processMs, r.classesPerSecond(), speedup, r.gcCount, r.gcMs, mb(r.peakRss));
+                    csv.write(String.format(Locale.ROOT, "%s,%d,%.1f,%.1f,%d,%.1f,%.3f,%d,%.1f,%d\n", r.engine, r.threads,
+                            r.wallMs, r.processMs, r.classes, r.classesPerSecond(), speedup, r.gcCount, r.gcMs, r.peakRss));
+                }
+            }
+            System.err.println("wrote results to " + new File(resultPath).getAbsolutePath());
+        } catch (ParseException | NumberFormatException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package bench;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.classfile.Attribute;
+import org.apache.bcel.classfile.InnerClass;
+import org.apache.bcel.classfile.InnerClasses;
+import org.apache.bcel.classfile.Signature;
+import org.apache.bcel.generic.*;
+import org.apache.commons.cli.*;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A synthetic obfuscated program of any size, for end-to-end runs of the deobfuscator (see
+ * {@link ScaleBenchmark}), and its mapping. Indices come in blocks of eight: slot 7 is an
+ * interface, slot 3 a static inner class of slot 2 and the other slots are plain classes. Plain
+ * classes form inheritance chains of {@code depth} classes; an interface extends the interface of
+ * the block before it, up to four deep. Class {@code i} is called {@code c<i>}, an inner class
+ * {@code c<outer>$<i>}, and was {@code net/example/p<i / 1000>/Thing<i>}, {@code Service<i>} for
+ * interfaces and {@code Thing<outer>$Inner<i>} for inner classes.
+ *
+ * <p>An interface {@code Service<T>} declares {@code T handle<k>(int, T)}, obfuscated to
+ * {@code n<k>}. A class implements the interface of its block as {@code Service<Thing<r>>}, where
+ * {@code r} is a fixed other class, and has fields {@code int field<j>} ({@code f<j>}) and
+ * {@code List<Thing<r>> items} ({@code l}), methods {@code Thing<i> method<j>(int, Thing<r>)}
+ * ({@code m<j>}) like {@link Corpus}, the interface methods, each of which also calls the
+ * interface, and a generic method {@code <T extends Thing<r>> List<T> collect(T)} ({@code g}).
+ * The mapping is written in ProGuard and SRG format.
+ *
+ * <pre>java -cp target/benchmarks.jar bench.ScaleCorpus -o corpus -n 1000000</pre>
+ */
+public final class ScaleCorpus {
+    private static final int[] PLAIN_SLOTS = { 0, 1, 2, 4, 5, 6 };
+    private static final int CHUNK = 8192; // classes generated in parallel before they are written
+    private static final int INTERFACE_DEPTH = 4;
+
+    final int classCount;
+    final int depth;
+    final int fields;
+    final int methods;
+    final int interfaceMethods;
+
+    ScaleCorpus(int classCount, int depth, int fields, int methods) {
+        this.classCount = classCount;
+        this.depth = depth;
+        this.fields = fields;
+        this.methods = methods;
+        interfaceMethods = Math.max(1, methods / 4);
+    }
+
+    boolean isInterface(int i) {
+        return i % 8 == 7;
+    }
+
+    boolean isInner(int i) {
+        return i % 8 == 3;
+    }
+
+    String name(int i) {
+        return isInner(i) ? name(i - 1) + "$" + i : "c" + i;
+    }
+
+    String originalName(int i) {
+        if (isInner(i)) return originalName(i - 1) + "$Inner" + i;
+        return "net/example/p" + i / 1000 + "/" + (isInterface(i) ? "Service" : "Thing") + i;
+    }
+
+    /** Returns the superclass of a class, or -1 for java/lang/Object. */
+    int parent(int i) {
+        if (isInterface(i) || isInner(i)) return -1;
+        int ordinal = i / 8 * PLAIN_SLOTS.length + (i % 8 < 3 ? i % 8 : i % 8 - 1);
+        if (ordinal % depth == 0) return -1;
+        ordinal--;
+        return ordinal / PLAIN_SLOTS.length * 8 + PLAIN_SLOTS[ordinal % PLAIN_SLOTS.length];
+    }
+
+    /** Returns the interface a class implements or an interface extends, or -1. */
+    int iface(int i) {
+        if (isInterface(i)) return i >= 8 && i / 8 % INTERFACE_DEPTH != 0 ? i - 8 : -1;
+        int j = i / 8 * 8 + 7;
+        return j < classCount ? j : -1;
+    }
+
+    /** Returns the class that the members of class {@code i} refer to, never an interface. */
+    int ref(int i) {
+        int r = (int) ((i * 7L + 3) % classCount);
+        return isInterface(r) ? r - 1 : r;
+    }
+
+    private String type(int i, boolean original) {
+        return "L" + (original ? originalName(i) : name(i)) + ";";
+    }
+
+    String methodDescriptor(int i, boolean original) {
+        return "(I" + type(ref(i), original) + ")" + type(i, original);
+    }
+
+    String collectDescriptor(int i, boolean original) {
+        return "(" + type(ref(i), original) + ")Ljava/util/List;";
+    }
+
+    static final String HANDLE_DESCRIPTOR = "(ILjava/lang/Object;)Ljava/lang/Object;";
+
+    private static String javaName(String internalName) {
+        return internalName.replace('/', '.');
+    }
+
+    /** Writes the mapping in ProGuard format. */
+    void writeProguard(Path path) throws IOException {
+        try (Writer w = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < classCount; i++) {
+                String self = javaName(originalName(i));
+                w.write(self + " -> " + name(i) + ":\n");
+                // fields first, as ProGuard writes them
+                if (!isInterface(i)) {
+                    for (int j = 0; j < fields; j++) {
+                        w.write("    int field" + j + " -> f" + j + "\n");
+                    }
+                    w.write("    java.util.List items -> l\n");
+                }
+                for (int k = 0; k < interfaceMethods && (isInterface(i) || iface(i) >= 0); k++) {
+                    w.write("    java.lang.Object handle" + k + "(int,java.lang.Object) -> n" + k + "\n");
+                }
+                if (isInterface(i)) continue;
+                String other = javaName(originalName(ref(i)));
+                for (int j = 0; j < methods; j++) {
+                    w.write("    " + (j + 1) + ":" + (j + 1) + ":" + self + " method" + j + "(int," + other + ") -> m" + j + "\n");
+                }
+                w.write("    java.util.List collect(" + other + ") -> g\n");
+            }
+        }
+    }
+
+    /** Writes the mapping in SRG format. */
+    void writeSrg(Path path) throws IOException {
+        try (Writer w = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < classCount; i++) {
+                w.write("CL: " + name(i) + " " + originalName(i) + "\n");
+            }
+            for (int i = 0; i < classCount; i++) {
+                if (isInterface(i)) continue;
+                for (int j = 0; j < fields; j++) {
+                    w.write("FD: " + name(i) + "/f" + j + " " + originalName(i) + "/field" + j + "\n");
+                }
+                w.write("FD: " + name(i) + "/l " + originalName(i) + "/items\n");
+            }
+            for (int i = 0; i < classCount; i++) {
+                for (int k = 0; k < interfaceMethods && (isInterface(i) || iface(i) >= 0); k++) {
+                    w.write("MD: " + name(i) + "/n" + k + " " + HANDLE_DESCRIPTOR + " " + originalName(i) + "/handle" + k
+                            + " " + HANDLE_DESCRIPTOR + "\n");
+                }
+                if (isInterface(i)) continue;
+                for (int j = 0; j < methods; j++) {
+                    w.write("MD: " + name(i) + "/m" + j + " " + methodDescriptor(i, false) + " "
+                            + originalName(i) + "/method" + j + " " + methodDescriptor(i, true) + "\n");
+                }
+                w.write("MD: " + name(i) + "/g " + collectDescriptor(i, false) + " "
+                        + originalName(i) + "/collect " + collectDescriptor(i, true) + "\n");
+            }
+        }
+    }
+
+    private static Attribute signature(ConstantPoolGen cp, String signature) {
+        return new Signature(cp.addUtf8("Signature"), 2, cp.addUtf8(signature), cp.getConstantPool());
+    }
+
+    // the InnerClasses attribute of an inner class and its outer class
+    private Attribute innerClasses(ConstantPoolGen cp, int inner) {
+        InnerClass entry = new InnerClass(cp.addClass(name(inner)), cp.addClass(name(inner - 1)),
+                cp.addUtf8(Integer.toString(inner)), Const.ACC_PUBLIC | Const.ACC_STATIC);
+        return new InnerClasses(cp.addUtf8("InnerClasses"), 2 + 8, new InnerClass[] { entry }, cp.getConstantPool());
+    }
+
+    /** Generates the obfuscated class file of class {@code i}. */
+    byte[] generateClass(int i) {
+        String self = name(i);
+        int parent = parent(i);
+        int iface = iface(i);
+        String[] interfaces = iface >= 0 ? new String[] { name(iface) } : new String[0];
+        int access = isInterface(i) ? Const.ACC_PUBLIC | Const.ACC_INTERFACE | Const.ACC_ABSTRACT : Const.ACC_PUBLIC | Const.ACC_SUPER;
+        ClassGen cg = new ClassGen(self, parent < 0 ? "java.lang.Object" : name(parent), self + ".java", access, interfaces);
+        ConstantPoolGen cp = cg.getConstantPool();
+        Type object = Type.OBJECT;
+        Type[] handleArgs = { Type.INT, object };
+
+        if (isInterface(i)) {
+            cg.addAttribute(signature(cp, "<T:Ljava/lang/Object;>Ljava/lang/Object;"
+                    + (iface >= 0 ? "L" + name(iface) + "<TT;>;" : "")));
+            for (int k = 0; k < interfaceMethods; k++) {
+                MethodGen mg = new MethodGen(Const.ACC_PUBLIC | Const.ACC_ABSTRACT, object, handleArgs,
+                        new String[] { "n", "value" }, "n" + k, self, null, cp);
+                mg.addAttribute(signature(cp, "(ITT;)TT;"));
+                cg.addMethod(mg.getMethod());
+            }
+            return cg.getJavaClass().getBytes();
+        }
+
+        int r = ref(i);
+        String other = name(r);
+        ObjectType selfType = new ObjectType(self);
+        ObjectType otherType = new ObjectType(other);
+        InstructionFactory factory = new InstructionFactory(cg, cp);
+        cg.addAttribute(signature(cp, "L" + (parent < 0 ? "java/lang/Object" : name(parent)) + ";"
+                + (iface >= 0 ? "L" + name(iface) + "<L" + other + ";>;" : "")));
+        if (isInner(i)) {
+            cg.addAttribute(innerClasses(cp, i));
+        } else if (i + 1 < classCount && isInner(i + 1)) {
+            cg.addAttribute(innerClasses(cp, i + 1));
+        }
+
+        for (int j = 0; j < fields; j++) {
+            cg.addField(new FieldGen(Const.ACC_PUBLIC, Type.INT, "f" + j, cp).getField());
+        }
+        FieldGen items = new FieldGen(Const.ACC_PUBLIC, new ObjectType("java.util.List"), "l", cp);
+        items.addAttribute(signature(cp, "Ljava/util/List<L" + other + ";>;"));
+        cg.addField(items.getField());
+
+        for (int j = 0; j < methods; j++) {
+            InstructionList il = new InstructionList();
+            if (fields > 0) {
+                il.append(InstructionFactory.createLoad(Type.OBJECT, 0));
+                il.append(factory.createFieldAccess(self, "f" + (j % fields), Type.INT, Const.GETFIELD));
+                il.append(InstructionConst.POP);
+            }
+            appendCall(il, factory, self, "m" + (j + 1) % methods, selfType, otherType, 0);
+            if (parent >= 0 && methods > 0) {
+                appendCall(il, factory, self, "m0", new ObjectType(name(parent)), new ObjectType(name(ref(parent))), 0);
+            }
+            if (methods > 0) {
+                appendCall(il, factory, other, "m0", new ObjectType(other), new ObjectType(name(ref(r))), 2);
+            }
+            il.append(InstructionFactory.createLoad(Type.OBJECT, 0));
+            il.append(InstructionFactory.createReturn(Type.OBJECT));
+            addMethod(cg, new MethodGen(Const.ACC_PUBLIC, selfType, new Type[] { Type.INT, otherType },
+                    new String[] { "n", "other" }, "m" + j, self, il, cp));
+        }
+
+        for (int k = 0; k < interfaceMethods && iface >= 0; k++) {
+            InstructionList il = new InstructionList();
+            il.append(InstructionFactory.createLoad(Type.OBJECT, 0));
+            il.append(InstructionFactory.createLoad(Type.INT, 1));
+            il.append(InstructionFactory.createLoad(Type.OBJECT, 2));
+            il.append(factory.createInvoke(name(iface), "n" + (k + 1) % interfaceMethods, object, handleArgs,
+                    Const.INVOKEINTERFACE));
+            il.append(InstructionFactory.createReturn(Type.OBJECT));
+            MethodGen mg = new MethodGen(Const.ACC_PUBLIC, object, handleArgs, new String[] { "n", "value" }, "n" + k, self, il, cp);
+            mg.addAttribute(signature(cp, "(IL" + other + ";)L" + other + ";"));
+            addMethod(cg, mg);
+        }
+
+        InstructionList il = new InstructionList();
+        il.append(InstructionFactory.createLoad(Type.OBJECT, 0));
+        il.append(factory.createFieldAccess(self, "l", new ObjectType("java.util.List"), Const.GETFIELD));
+        il.append(InstructionFactory.createReturn(Type.OBJECT));
+        MethodGen collect = new MethodGen(Const.ACC_PUBLIC, new ObjectType("java.util.List"), new Type[] { otherType },
+                new String[] { "value" }, "g", self, il, cp);
+        collect.addAttribute(signature(cp, "<T:L" + other + ";>(TT;)Ljava/util/List<TT;>;"));
+        addMethod(cg, collect);
+        return cg.getJavaClass().getBytes();
+    }
+
+    private static void addMethod(ClassGen cg, MethodGen mg) {
+        mg.setMaxStack();
+        mg.setMaxLocals();
+        cg.addMethod(mg.getMethod());
+        mg.getInstructionList().dispose();
+    }
+
+    // calls owner.name(int, argType) returning returnType on the object in local variable receiver
+    private static void appendCall(InstructionList il, InstructionFactory factory, String owner, String name,
+                                   Type returnType, Type argType, int receiver) {
+        il.append(InstructionFactory.createLoad(Type.OBJECT, receiver));
+        il.append(InstructionFactory.createLoad(Type.INT, 1));
+        il.append(InstructionConst.ACONST_NULL);
+        il.append(factory.createInvoke(owner, name, returnType, new Type[] { Type.INT, argType }, Const.INVOKEVIRTUAL));
+        il.append(InstructionConst.POP);
+    }
+
+    /**
+     * Writes the classes to {@code corpus.jar} and the mapping to {@code mapping.txt} and
+     * {@code mapping.srg} in {@code dir}. Classes are generated in parallel.
+     */
+    void write(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        writeProguard(dir.resolve("mapping.txt"));
+        writeSrg(dir.resolve("mapping.srg"));
+        try (OutputStream file = new BufferedOutputStream(Files.newOutputStream(dir.resolve("corpus.jar")), 1 << 16);
+             ZipOutputStream zip = new ZipOutputStream(file)) {
+            zip.setLevel(Deflater.BEST_SPEED);
+            for (int start = 0; start < classCount; start += CHUNK) {
+                int end = Math.min(classCount, start + CHUNK);
+                List<byte[]> chunk = new ArrayList<>(end - start);
+                IntStream.range(start, end).parallel().mapToObj(this::generateClass).forEachOrdered(chunk::add);
+                for (int i = start; i < end; i++) {
+                    zip.putNextEntry(new ZipEntry(name(i) + ".class"));
+                    zip.write(chunk.get(i - start));
+                    zip.closeEntry();
+                }
+                if (end % (CHUNK * 16) == 0 || end == classCount) {
+                    System.err.printf("generated %d of %d classes\n", end, classCount);
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        Options options = new Options();
+        options.addRequiredOption("o", null, true, "output directory");
+        options.addOption("n", null, true, "number of classes (default: 100000)");
+        options.addOption(null, "depth", true, "length of inheritance chains (default: 16)");
+        options.addOption(null, "fields", true, "int fields of each class (default: 6)");
+        options.addOption(null, "methods", true, "methods of each class (default: 12)");
+        try {
+            CommandLine cl = new DefaultParser().parse(options, args);
+            ScaleCorpus corpus = new ScaleCorpus(Integer.parseInt(cl.getOptionValue('n', "100000")),
+                    Integer.parseInt(cl.getOptionValue("depth", "16")), Integer.parseInt(cl.getOptionValue("fields", "6")),
+                    Integer.parseInt(cl.getOptionValue("methods", "12")));
+            if (corpus.classCount < 8 || corpus.depth < 1 || corpus.fields < 0 || corpus.methods < 1) {
+                throw new ParseException("need at least 8 classes, a depth of 1 and 1 method");
+            }
+            long start = System.nanoTime();
+            corpus.write(Paths.get(cl.getOptionValue('o')));
+            System.err.printf("done in %dms\n", (System.nanoTime() - start) / 1000000);
+        } catch (ParseException | NumberFormatException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
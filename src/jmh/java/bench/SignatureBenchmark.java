@@ -0,0 +1,63 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maps a mix of descriptors and generic signatures, as found in a class file, to original class
+ * names, with and without the signature cache. Results are per signature.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignatureBenchmark {
+    private static final int SIGNATURES = 1024;
+
+    @Param({ "true", "false" })
+    boolean cache;
+
+    private Hooks hooks;
+    private Object mapper;
+    private final String[] signatures = new String[SIGNATURES];
+
+    @Setup(Level.Trial)
+    public void setup() {
+        hooks = Hooks.get();
+        Corpus corpus = new Corpus(4000, 4, 0, 0);
+        Map<String, String> classNameMap = new HashMap<>();
+        for (int i = 0; i < corpus.classCount; i++) {
+            classNameMap.put(Corpus.name(i), Corpus.originalName(i));
+        }
+        mapper = hooks.newSignatureMapper(classNameMap, cache ? 1 << 18 : 0);
+        for (int k = 0; k < SIGNATURES; k++) {
+            int i = k * 31 % corpus.classCount;
+            String c = Corpus.name(i);
+            String d = Corpus.name(corpus.ref(i));
+            switch (k % 8) {
+                case 0: signatures[k] = corpus.methodDescriptor(i, false); break;
+                case 1: signatures[k] = "L" + c + ";"; break;
+                case 2: signatures[k] = "[[L" + d + ";"; break;
+                case 3: signatures[k] = "I"; break;
+                case 4: signatures[k] = "(IJLjava/lang/String;)V"; break;
+                case 5: signatures[k] = "(L" + c + ";[BLjava/util/List;)Ljava/lang/Object;"; break;
+                case 6: signatures[k] = "Ljava/util/Map<L" + c + ";Ljava/util/List<+L" + d + ";>;>;"; break;
+                default: signatures[k] = "<T:L" + c + ";>(TT;L" + d + "<TT;>.Inner<Ljava/lang/String;>;)TT;"; break;
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIGNATURES)
+    public void map(Blackhole blackhole) {
+        for (String signature : signatures) {
+            blackhole.consume(hooks.mapSignature(mapper, signature));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.instrument.Instrumentation;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Java agent that deobfuscates the game while it runs, see {@link LoadTimeRemapper}. The options
+ * follow the jar, separated by commas:
+ *
+ * <pre>java -javaagent:mc-deobf.jar=mapping=client.txt,game=client.jar -cp client.jar:... net.minecraft.client.main.Main</pre>
+ */
+public class Agent {
+    private static final String USAGE = "usage: -javaagent:mc-deobf.jar=mapping=<file>,game=<jar>"
+            + "[,format=<format>][,classpath=<jar>][,cache=<dir>][,nocache][,verbose]\n"
+            + "  mapping    obfuscation mapping file, repeat for a chain of mappings\n"
+            + "  format     mapping format as with -f, once for all mappings or once for each\n"
+            + "  game       the obfuscated game jar\n"
+            + "  classpath  a library the game depends on, repeat for several\n"
+            + "  cache      directory of remapped classes (default: ~/.cache/mc-deobf/agent)\n"
+            + "  nocache    remap every class on every start and do not cache parsed mappings\n"
+            + "  verbose    print what was remapped when the JVM exits\n";
+
+    private Agent() {
+    }
+
+    public static void premain(String args, Instrumentation inst) {
+        LoadTimeRemapper remapper;
+        try {
+            remapper = parse(args == null ? "" : args);
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println("mc-deobf agent: " + e.getMessage());
+            System.err.print(USAGE);
+            System.exit(1);
+            return;
+        }
+        inst.addTransformer(remapper);
+    }
+
+    private static LoadTimeRemapper parse(String args) throws IOException {
+        List<String> mappingFilePaths = new ArrayList<>();
+        List<String> formats = new ArrayList<>();
+        List<String> classPath = new ArrayList<>();
+        String gamePath = null;
+        Path cacheDir = Paths.get(System.getProperty("user.home"), ".cache", "mc-deobf", "agent");
+        boolean useCache = true;
+        boolean verbose = false;
+        for (String arg : args.split(",")) {
+            if (arg.isEmpty()) continue;
+            int eq = arg.indexOf('=');
+            String key = eq < 0 ? arg : arg.substring(0, eq);
+            String value = eq < 0 ? null : arg.substring(eq + 1);
+            if (key.equals("nocache") || key.equals("verbose")) {
+                if (value != null) throw new IllegalArgumentException(key + " takes no value");
+                if (key.equals("nocache")) {
+                    useCache = false;
+                } else {
+                    verbose = true;
+                }
+                continue;
+            }
+            if (value == null || value.isEmpty()) throw new IllegalArgumentException(key + " needs a value");
+            switch (key) {
+                case "mapping":
+                    mappingFilePaths.add(existingFile(value));
+                    break;
+                case "format":
+                    formats.add(value);
+                    break;
+                case "game":
+                    gamePath = existingFile(value);
+                    break;
+                case "classpath":
+                    classPath.add(value);
+                    break;
+                case "cache":
+                    cacheDir = Paths.get(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option: " + key);
+            }
+        }
+        if (mappingFilePaths.isEmpty()) throw new IllegalArgumentException("no mapping file");
+        if (gamePath == null) throw new IllegalArgumentException("no game jar");
+        if (formats.isEmpty()) {
+            formats = Collections.nCopies(mappingFilePaths.size(), "proguard");
+        } else if (formats.size() == 1) {
+            formats = Collections.nCopies(mappingFilePaths.size(), formats.get(0));
+        } else if (formats.size() != mappingFilePaths.size()) {
+            throw new IllegalArgumentException("give one format, or one for each mapping file");
+        }
+        return new LoadTimeRemapper(mappingFilePaths, formats, gamePath, classPath, useCache ? cacheDir : null, verbose);
+    }
+
+    private static String existingFile(String path) {
+        if (!new File(path).isFile()) throw new IllegalArgumentException(path + ": no such file");
+        return path;
+    }
+}
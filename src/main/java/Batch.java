@@ -0,0 +1,112 @@
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Batch mode. Runs a list of jobs, for example the client and server of many versions, one
+ * after another on one worker pool. A class whose bytes and effective mappings are the same as
+ * in an earlier job is not remapped again but written from a {@link ClassCache}, which holds the
+ * remapped classes of all jobs up to a quarter of the maximum heap size.
+ *
+ * The batch file has the options of one job per line, as on the command line. Options with
+ * spaces can be put in double quotes. Empty lines and lines starting with {@code #} are ignored.
+ */
+public class Batch {
+    private Batch() {
+    }
+
+    // splits a line at whitespace outside of double quotes
+    private static List<String> split(String line) throws ParseException {
+        List<String> args = new ArrayList<>();
+        StringBuilder arg = null;
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+                if (arg == null) arg = new StringBuilder();
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (arg != null) args.add(arg.toString());
+                arg = null;
+            } else {
+                if (arg == null) arg = new StringBuilder();
+                arg.append(c);
+            }
+        }
+        if (quoted) throw new ParseException("unterminated quote");
+        if (arg != null) args.add(arg.toString());
+        return args;
+    }
+
+    /** Reads the jobs of a batch file. */
+    public static List<Job> read(String filePath) throws IOException, ParseException {
+        List<Job> jobs = new ArrayList<>();
+        Options options = new Options();
+        Job.addOptions(options);
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(filePath), StandardCharsets.UTF_8)) {
+            String line;
+            int lineNo = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNo++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                try {
+                    CommandLine cl = new DefaultParser().parse(options, split(line).toArray(new String[0]));
+                    jobs.add(Job.parse(cl));
+                } catch (ParseException e) {
+                    throw new ParseException(filePath + ":" + lineNo + ": " + e.getMessage());
+                }
+            }
+        }
+        if (jobs.isEmpty()) {
+            throw new ParseException(filePath + ": no jobs");
+        }
+        return jobs;
+    }
+
+    /**
+     * Runs the jobs and prints the stage timings of each. A failed job does not stop the others.
+     * Writes the reports of all jobs that succeeded if {@code reportPath} is not null. Returns
+     * false if a job failed.
+     */
+    public static boolean run(List<Job> jobs, int nWorker, String reportPath) throws IOException, InterruptedException {
+        WorkPool pool = new WorkPool(nWorker);
+        MappingStore store = new MappingStore(jobs.size());
+        ClassCache cache = new ClassCache(Runtime.getRuntime().maxMemory() / 4);
+        List<RunReport> reports = new ArrayList<>();
+        int failed = 0;
+        try {
+            for (int no = 1; no <= jobs.size(); no++) {
+                Job job = jobs.get(no - 1);
+                System.err.printf("job %d of %d: %s -> %s\n", no, jobs.size(), job.inputPath, job.outputPath);
+                try {
+                    RunReport report = job.run(pool, store, cache);
+                    reports.add(report);
+                    System.err.printf("job %d: done\n", no);
+                    System.err.print(report.summary());
+                } catch (IOException | InvalidInputException | RuntimeException e) {
+                    System.err.printf("job %d: failed: %s\n", no, e.getMessage() != null ? e.getMessage() : e.toString());
+                    failed++;
+                }
+            }
+        } finally {
+            pool.close();
+        }
+        System.err.printf("%d of %d jobs done, %d classes (%d bytes) in the class cache\n", jobs.size() - failed,
+                jobs.size(), cache.getEntryCount(), cache.getSize());
+        if (reportPath != null) {
+            RunReport.write(reportPath, RunReport.toJson(reports));
+            System.err.println("wrote report to " + reportPath);
+        }
+        return failed == 0;
+    }
+}
@@ -0,0 +1,54 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remapped classes shared by the jobs of a batch, keyed by the fingerprint of the input class
+ * (see {@link ClassFingerprinter}). A class with the same bytes and the same effective mappings
+ * in another version is remapped once and its output written again from here. Stops taking new
+ * classes once the stored classes reach the size limit. Safe to use from multiple threads.
+ */
+public class ClassCache {
+    /** The output of a remapped class. */
+    public static class Entry {
+        final String className;
+        final byte[] data;
+
+        Entry(String className, byte[] data) {
+            this.className = className;
+            this.data = data;
+        }
+    }
+
+    private final long maxSize;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong size = new AtomicLong();
+
+    /** Creates a cache that keeps at most {@code maxSize} bytes of class files. */
+    public ClassCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /** Returns the output of the class with the given fingerprint, or null. */
+    public Entry get(String fingerprint) {
+        return entries.get(fingerprint);
+    }
+
+    /** Stores the output of a remapped class, unless the cache is full. */
+    public void put(String fingerprint, String className, byte[] data) {
+        if (size.addAndGet(data.length) > maxSize) {
+            size.addAndGet(-data.length);
+            return;
+        }
+        if (entries.putIfAbsent(fingerprint, new Entry(className, data)) != null) {
+            size.addAndGet(-data.length);
+        }
+    }
+
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+    public long getSize() {
+        return size.get();
+    }
+}
@@ -0,0 +1,143 @@
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Computes a fingerprint for each input class that changes whenever the remapped class could
+ * change. It covers the class file and the tool version. For the class itself, the classes whose
+ * members it refers to and all of their ancestors, it covers the name, the parents, the mapped
+ * names and the declared members, which decide the renames of conflicting members. For classes
+ * that are only referred to by name, it covers the original name. A mapping or hierarchy change
+ * thus only changes the fingerprints of the classes that can see it.
+ *
+ * All mappings and the hierarchy must be complete before the first call and must not change
+ * while fingerprints are computed. Safe to use from multiple threads.
+ */
+public class ClassFingerprinter {
+    private final Map<String, Remapper.ClassMapping> obfuscatedMappings;
+    private final Map<String, String[]> hierarchy;
+    private final Map<String, ClassHeader> headers; // input classes by name
+    private final byte[] toolVersion;
+    private final ConcurrentHashMap<String, byte[]> classDigests = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, byte[]> nameDigests = new ConcurrentHashMap<>();
+
+    ClassFingerprinter(Map<String, Remapper.ClassMapping> obfuscatedMappings, Map<String, String[]> hierarchy,
+                       Map<String, ClassHeader> headers, byte[] toolVersion) {
+        this.obfuscatedMappings = obfuscatedMappings;
+        this.hierarchy = hierarchy;
+        this.headers = headers;
+        this.toolVersion = toolVersion;
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void update(MessageDigest md, String s) {
+        md.update(s.getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+    }
+
+    // everything about one class that other classes can see in their remapped form
+    private byte[] computeClassDigest(String className) {
+        MessageDigest md = newDigest();
+        update(md, className);
+        String[] parents = hierarchy.get(className);
+        if (parents != null) {
+            md.update((byte) 'P');
+            for (String parent : parents) {
+                update(md, parent);
+            }
+        }
+        Remapper.ClassMapping cm = obfuscatedMappings.get(className);
+        if (cm != null) {
+            // symbol IDs differ between runs, so members are hashed by name in sorted order
+            SymbolTable symbols = cm.symbols;
+            List<String> members = new ArrayList<>(cm.fieldMap.size() + cm.methodMap.size());
+            cm.fieldMap.forEach((key, name) -> members.add("F " + symbols.getSymbol((int) key) + " " + name));
+            cm.methodMap.forEach((key, name) -> members.add("M " + symbols.getSymbol(SymbolTable.nameId(key)) + " "
+                    + symbols.getSymbol(SymbolTable.descId(key)) + " " + name));
+            Collections.sort(members);
+            md.update((byte) 'M');
+            update(md, cm.originalName);
+            for (String member : members) {
+                update(md, member);
+            }
+        }
+        ClassHeader header = headers.get(className);
+        if (header != null) {
+            md.update((byte) 'D');
+            for (int i = 0; i < header.fieldNames.length; i++) {
+                update(md, header.fieldNames[i]);
+                update(md, header.fieldDescriptors[i]);
+            }
+            md.update((byte) 'D');
+            for (int i = 0; i < header.methodNames.length; i++) {
+                update(md, header.methodNames[i]);
+                update(md, header.methodDescriptors[i]);
+            }
+        }
+        return md.digest();
+    }
+
+    private byte[] getClassDigest(String className) {
+        byte[] digest = classDigests.get(className);
+        if (digest == null) {
+            digest = computeClassDigest(className);
+            classDigests.putIfAbsent(className, digest);
+        }
+        return digest;
+    }
+
+    private byte[] getNameDigest(String className) {
+        byte[] digest = nameDigests.get(className);
+        if (digest == null) {
+            MessageDigest md = newDigest();
+            update(md, className);
+            Remapper.ClassMapping cm = obfuscatedMappings.get(className);
+            if (cm != null) {
+                md.update((byte) 'M');
+                update(md, cm.originalName);
+            }
+            digest = md.digest();
+            nameDigests.putIfAbsent(className, digest);
+        }
+        return digest;
+    }
+
+    /** Returns the fingerprint of an input class given the hash of its class file. */
+    public byte[] fingerprint(ClassHeader header, byte[] inputHash) {
+        // the class, the classes whose members it refers to and all of their ancestors
+        Set<String> dependencies = new HashSet<>(header.memberOwners);
+        dependencies.add(header.name);
+        Deque<String> queue = new ArrayDeque<>(dependencies);
+        while (!queue.isEmpty()) {
+            String[] parents = hierarchy.get(queue.poll());
+            if (parents == null) continue;
+            for (String parent : parents) {
+                if (dependencies.add(parent)) queue.add(parent);
+            }
+        }
+        String[] sorted = dependencies.toArray(new String[0]);
+        Arrays.sort(sorted);
+        String[] names = header.referencedClasses.stream().filter(name -> !dependencies.contains(name)).sorted().toArray(String[]::new);
+
+        MessageDigest md = newDigest();
+        md.update(toolVersion);
+        md.update(inputHash);
+        for (String className : sorted) {
+            md.update(getClassDigest(className));
+        }
+        md.update((byte) 'N');
+        for (String className : names) {
+            md.update(getNameDigest(className));
+        }
+        return md.digest();
+    }
+}
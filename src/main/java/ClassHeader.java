@@ -0,0 +1,203 @@
+import org.apache.bcel.classfile.Field;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Name, superclass and interfaces of a class, read from the start of a class file without
+ * parsing fields, methods or attributes. {@link #readWithMembers} also reads the names and
+ * descriptors of the declared members and collects the classes the class refers to.
+ */
+public class ClassHeader {
+    public String name; // '/'-separated
+    public String superName; // null for java/lang/Object and module-info
+    public String[] interfaces;
+
+    // only set by readWithMembers and of, in declaration order
+    public String[] fieldNames;
+    public String[] fieldDescriptors;
+    public String[] methodNames;
+    public String[] methodDescriptors;
+    // names of classes in class constants, descriptors and signatures; may contain names that are
+    // not classes
+    public Set<String> referencedClasses;
+    // classes whose fields or methods are referred to
+    public Set<String> memberOwners;
+    // a Utf8 constant contains the snowman, which remapping replaces in local variable names
+    public boolean hasSnowman;
+
+    public static ClassHeader read(InputStream is) throws IOException {
+        return read(is, false);
+    }
+
+    public static ClassHeader readWithMembers(InputStream is) throws IOException {
+        return read(is, true);
+    }
+
+    private static ClassHeader read(InputStream is, boolean withMembers) throws IOException {
+        DataInputStream in = new DataInputStream(is);
+        if (in.readInt() != 0xcafebabe) {
+            throw new IOException("not a class file");
+        }
+        in.readInt(); // minor_version, major_version
+        int count = in.readUnsignedShort();
+        String[] utf8 = new String[count];
+        int[] classNameIndex = new int[count];
+        int[] ownerIndex = new int[count]; // class_index of field and method references
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1: // Utf8
+                    utf8[i] = in.readUTF();
+                    break;
+                case 7: // Class
+                    classNameIndex[i] = in.readUnsignedShort();
+                    break;
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    in.skipBytes(2);
+                    break;
+                case 15: // MethodHandle
+                    in.skipBytes(3);
+                    break;
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                    ownerIndex[i] = in.readUnsignedShort();
+                    in.skipBytes(2);
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    in.skipBytes(4);
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    in.skipBytes(8);
+                    i++; // takes two entries
+                    break;
+                default:
+                    throw new IOException("invalid constant pool tag " + tag);
+            }
+        }
+        in.readUnsignedShort(); // access_flags
+        ClassHeader header = new ClassHeader();
+        header.name = utf8[classNameIndex[in.readUnsignedShort()]];
+        int superIndex = in.readUnsignedShort();
+        header.superName = superIndex == 0 ? null : utf8[classNameIndex[superIndex]];
+        header.interfaces = new String[in.readUnsignedShort()];
+        for (int i = 0; i < header.interfaces.length; i++) {
+            header.interfaces[i] = utf8[classNameIndex[in.readUnsignedShort()]];
+        }
+        if (!withMembers) return header;
+
+        header.fieldNames = new String[in.readUnsignedShort()];
+        header.fieldDescriptors = new String[header.fieldNames.length];
+        for (int i = 0; i < header.fieldNames.length; i++) {
+            in.readUnsignedShort(); // access_flags
+            header.fieldNames[i] = utf8[in.readUnsignedShort()];
+            header.fieldDescriptors[i] = utf8[in.readUnsignedShort()];
+            skipAttributes(in);
+        }
+        header.methodNames = new String[in.readUnsignedShort()];
+        header.methodDescriptors = new String[header.methodNames.length];
+        for (int i = 0; i < header.methodNames.length; i++) {
+            in.readUnsignedShort(); // access_flags
+            header.methodNames[i] = utf8[in.readUnsignedShort()];
+            header.methodDescriptors[i] = utf8[in.readUnsignedShort()];
+            skipAttributes(in);
+        }
+        header.referencedClasses = new HashSet<>();
+        header.memberOwners = new HashSet<>();
+        for (int i = 1; i < count; i++) {
+            if (ownerIndex[i] > 0) {
+                String owner = utf8[classNameIndex[ownerIndex[i]]];
+                if (!owner.startsWith("[")) header.memberOwners.add(owner);
+            } else if (classNameIndex[i] > 0 && !utf8[classNameIndex[i]].startsWith("[")) {
+                header.referencedClasses.add(utf8[classNameIndex[i]]);
+            } else if (utf8[i] != null) {
+                addClassNames(utf8[i], header.referencedClasses);
+                if (utf8[i].indexOf('\u2603') >= 0) header.hasSnowman = true;
+            }
+        }
+        return header;
+    }
+
+    private static void skipAttributes(DataInputStream in) throws IOException {
+        for (int n = in.readUnsignedShort(); n > 0; n--) {
+            in.readUnsignedShort(); // attribute_name_index
+            int length = in.readInt();
+            if (in.skipBytes(length) != length) {
+                throw new IOException("truncated class file");
+            }
+        }
+    }
+
+    // adds every "L<name>" followed by ';', '<' or '.', which covers class names in descriptors
+    // and signatures
+    private static void addClassNames(String s, Set<String> names) {
+        for (int i = s.indexOf('L'); i >= 0; i = s.indexOf('L', i + 1)) {
+            int end = i + 1;
+            while (end < s.length()) {
+                char c = s.charAt(end);
+                if (c == ';' || c == '<' || c == '.') break;
+                end++;
+            }
+            if (end < s.length() && end > i + 1) {
+                names.add(s.substring(i + 1, end));
+            }
+        }
+    }
+
+    public static ClassHeader of(JavaClass cls) {
+        ClassHeader header = new ClassHeader();
+        header.name = cls.getClassName().replace('.', '/');
+        header.superName = cls.getSuperclassNameIndex() > 0 ? cls.getSuperclassName().replace('.', '/') : null;
+        header.interfaces = cls.getInterfaceNames().clone();
+        for (int i = 0; i < header.interfaces.length; i++) {
+            header.interfaces[i] = header.interfaces[i].replace('.', '/');
+        }
+        Field[] fields = cls.getFields();
+        header.fieldNames = new String[fields.length];
+        header.fieldDescriptors = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            header.fieldNames[i] = fields[i].getName();
+            header.fieldDescriptors[i] = fields[i].getSignature();
+        }
+        Method[] methods = cls.getMethods();
+        header.methodNames = new String[methods.length];
+        header.methodDescriptors = new String[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            header.methodNames[i] = methods[i].getName();
+            header.methodDescriptors[i] = methods[i].getSignature();
+        }
+        return header;
+    }
+
+    /** Adds this class to a hierarchy map, which maps class names to {@link #getParents()}. */
+    public void addTo(Map<String, String[]> hierarchy) {
+        String[] parents = getParents();
+        if (!name.endsWith("package-info") && parents.length > 0) {
+            hierarchy.put(name, parents);
+        }
+    }
+
+    /** Returns superclass followed by interfaces, or an empty array. */
+    public String[] getParents() {
+        if (superName == null) return interfaces;
+        String[] parents = new String[interfaces.length + 1];
+        parents[0] = superName;
+        System.arraycopy(interfaces, 0, parents, 1, interfaces.length);
+        return parents;
+    }
+}
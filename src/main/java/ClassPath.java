@@ -0,0 +1,275 @@
+import java.io.*;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Library classes that input classes extend or use but that are not part of the input: jars,
+ * directories and the JDK ({@code jrt}), searched in the order given. Each of them is indexed
+ * for the parents and the declared members of its classes. The index of a jar is cached in a
+ * directory, keyed by the SHA-1 of the jar, and the index of the JDK by its home and version,
+ * so a later run only maps the cached file. An element is only indexed once a class is looked
+ * up that is not in the elements before it, and members are only read for mapped classes.
+ *
+ * <pre>
+ * header:  int magic, int version, byte[20] key
+ * classes: int count, count * (string name, int parentCount, parentCount * string parent, int memberOffset)
+ * members: for each class: int fieldCount, fieldCount * (string name, string descriptor),
+ *          int methodCount, methodCount * (string name, string descriptor)
+ * </pre>
+ * A string is an int length followed by that many bytes of UTF-8. A member offset is relative to
+ * the start of the members.
+ */
+public class ClassPath {
+    private static final int MAGIC = 0x4d434350; // "MCCP"
+    private static final int VERSION = 1;
+    public static final String JRT = "jrt";
+
+    // the index of one element of the class path
+    private static class Library {
+        final Map<String, String[]> parents = new HashMap<>();
+        final Map<String, Integer> memberOffsets = new HashMap<>();
+        final ByteBuffer members;
+
+        Library(ByteBuffer buf) {
+            for (int n = buf.getInt(); n > 0; n--) {
+                String name = getString(buf);
+                String[] p = new String[buf.getInt()];
+                for (int i = 0; i < p.length; i++) {
+                    p[i] = getString(buf);
+                }
+                parents.put(name, p);
+                memberOffsets.put(name, buf.getInt());
+            }
+            members = buf.slice();
+        }
+
+        ClassHeader readMembers(String name) {
+            ByteBuffer buf = members.duplicate();
+            buf.position(memberOffsets.get(name));
+            String[] p = parents.get(name);
+            ClassHeader header = new ClassHeader();
+            header.name = name;
+            // only java/lang/Object has no superclass
+            header.superName = p.length > 0 ? p[0] : null;
+            header.interfaces = p.length > 0 ? Arrays.copyOfRange(p, 1, p.length) : p;
+            header.fieldNames = new String[buf.getInt()];
+            header.fieldDescriptors = new String[header.fieldNames.length];
+            for (int i = 0; i < header.fieldNames.length; i++) {
+                header.fieldNames[i] = getString(buf);
+                header.fieldDescriptors[i] = getString(buf);
+            }
+            header.methodNames = new String[buf.getInt()];
+            header.methodDescriptors = new String[header.methodNames.length];
+            for (int i = 0; i < header.methodNames.length; i++) {
+                header.methodNames[i] = getString(buf);
+                header.methodDescriptors[i] = getString(buf);
+            }
+            return header;
+        }
+    }
+
+    private final List<String> elements;
+    private final Path cacheDir; // null to not cache
+    private final RunReport report;
+    private final Library[] libraries; // indexed on first use
+    private int cacheHits;
+
+    /** {@code cacheDir} may be null to index the libraries again on every run. */
+    public ClassPath(List<String> elements, Path cacheDir, RunReport report) {
+        this.elements = elements;
+        this.cacheDir = cacheDir;
+        this.report = report;
+        libraries = new Library[elements.size()];
+    }
+
+    public static Path getDefaultCacheDir() {
+        return Paths.get(System.getProperty("user.home"), ".cache", "mc-deobf", "classpath");
+    }
+
+    /** Returns the number of libraries whose index was loaded from the cache. */
+    public int getCacheHits() {
+        return cacheHits;
+    }
+
+    private static String getString(ByteBuffer buf) {
+        byte[] b = new byte[buf.getInt()];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static void putString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    // the cache key of an element, or null if it is not cached
+    private static byte[] getKey(String element) throws IOException {
+        if (element.equals(JRT)) {
+            String id = JRT + "\0" + System.getProperty("java.home") + "\0" + System.getProperty("java.runtime.version");
+            return ClassFingerprinter.newDigest().digest(id.getBytes(StandardCharsets.UTF_8));
+        }
+        return element.endsWith(".jar") ? MappingCache.hash(element) : null;
+    }
+
+    private static Input open(String element) throws IOException {
+        if (element.equals(JRT)) {
+            try {
+                return new DirectoryInput(FileSystems.getFileSystem(URI.create("jrt:/")).getPath("/modules"));
+            } catch (ProviderNotFoundException | FileSystemNotFoundException e) {
+                throw new IOException("this JVM has no jrt file system, use the path of rt.jar instead");
+            }
+        }
+        if (!Files.exists(Paths.get(element))) {
+            throw new NoSuchFileException(element);
+        }
+        return Input.open(element);
+    }
+
+    // reads the parents and members of all classes of an element into the binary form above,
+    // without the header
+    private static byte[] index(WorkPool pool, String element) throws IOException, InterruptedException {
+        List<Input.Entry> entries = new ArrayList<>();
+        try (Input input = open(element)) {
+            for (Input.Entry entry : input.list()) {
+                String name = entry.getName();
+                if (name.endsWith(".class") && !name.startsWith("META-INF/") && !name.endsWith("module-info.class")) {
+                    entries.add(entry);
+                }
+            }
+            List<Integer> indices = new ArrayList<>(entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                indices.add(i);
+            }
+            ClassHeader[] headers = new ClassHeader[entries.size()];
+            pool.run("classpath", indices, i -> entries.get(i).getSize(), i -> {
+                try (InputStream in = entries.get(i).open()) {
+                    headers[i] = ClassHeader.readWithMembers(in);
+                }
+            }).print();
+
+            ByteArrayOutputStream classes = new ByteArrayOutputStream();
+            ByteArrayOutputStream members = new ByteArrayOutputStream();
+            DataOutputStream classOut = new DataOutputStream(classes);
+            DataOutputStream memberOut = new DataOutputStream(members);
+            Set<String> seen = new HashSet<>();
+            List<ClassHeader> unique = new ArrayList<>();
+            for (ClassHeader header : headers) {
+                if (seen.add(header.name)) unique.add(header);
+            }
+            classOut.writeInt(unique.size());
+            for (ClassHeader header : unique) {
+                putString(classOut, header.name);
+                String[] parents = header.getParents();
+                classOut.writeInt(parents.length);
+                for (String parent : parents) {
+                    putString(classOut, parent);
+                }
+                classOut.writeInt(memberOut.size());
+                memberOut.writeInt(header.fieldNames.length);
+                for (int i = 0; i < header.fieldNames.length; i++) {
+                    putString(memberOut, header.fieldNames[i]);
+                    putString(memberOut, header.fieldDescriptors[i]);
+                }
+                memberOut.writeInt(header.methodNames.length);
+                for (int i = 0; i < header.methodNames.length; i++) {
+                    putString(memberOut, header.methodNames[i]);
+                    putString(memberOut, header.methodDescriptors[i]);
+                }
+            }
+            members.writeTo(classes);
+            return classes.toByteArray();
+        }
+    }
+
+    private Library load(WorkPool pool, String element) throws IOException, InterruptedException {
+        byte[] key = getKey(element);
+        Path cachePath = cacheDir != null && key != null ? cacheDir.resolve(Util.toHex(key) + ".idx") : null;
+        if (cachePath != null && Files.isRegularFile(cachePath)) {
+            ByteBuffer buf;
+            try (FileChannel channel = FileChannel.open(cachePath, StandardOpenOption.READ)) {
+                buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            try {
+                if (buf.getInt() == MAGIC && buf.getInt() == VERSION) {
+                    byte[] hash = new byte[key.length];
+                    buf.get(hash);
+                    if (Arrays.equals(hash, key)) {
+                        Library library = new Library(buf);
+                        cacheHits++;
+                        System.err.printf("using class path index of %s\n", element);
+                        return library;
+                    }
+                }
+            } catch (RuntimeException e) {
+                // truncated or otherwise damaged file, index again
+            }
+        }
+
+        System.err.printf("indexing %s...\n", element);
+        byte[] index = index(pool, element);
+        if (cachePath != null) {
+            try {
+                Files.createDirectories(cacheDir);
+                Path tmp = Paths.get(cachePath + ".tmp");
+                try (DataOutputStream file = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                    file.writeInt(MAGIC);
+                    file.writeInt(VERSION);
+                    file.write(key);
+                    file.write(index);
+                }
+                Files.move(tmp, cachePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                System.err.printf("cannot write class path index: %s\n", e.getMessage());
+            }
+        }
+        return new Library(ByteBuffer.wrap(index));
+    }
+
+    // the first library that has the class, indexing libraries as needed
+    private Library find(WorkPool pool, String className) throws IOException, InterruptedException {
+        for (int i = 0; i < libraries.length; i++) {
+            if (libraries[i] == null) libraries[i] = load(pool, elements.get(i));
+            if (libraries[i].parents.containsKey(className)) return libraries[i];
+        }
+        return null;
+    }
+
+    /**
+     * Adds the library classes that are ancestors of classes in the hierarchy, or that have
+     * mappings, to the hierarchy, together with their ancestors. Returns the headers of those
+     * that have mappings, with their members, sorted by name.
+     */
+    public List<ClassHeader> resolve(WorkPool pool, Map<String, String[]> hierarchy, Set<String> mapped)
+            throws IOException, InterruptedException {
+        RunReport.Stage stage = report.begin("libraries");
+        Deque<String> queue = new ArrayDeque<>();
+        for (String[] parents : hierarchy.values()) {
+            queue.addAll(Arrays.asList(parents));
+        }
+        queue.addAll(mapped);
+        Set<String> seen = new HashSet<>(hierarchy.keySet());
+        Map<String, Library> found = new TreeMap<>();
+        int added = 0;
+        while (!queue.isEmpty()) {
+            String className = queue.poll();
+            if (!seen.add(className)) continue;
+            Library library = find(pool, className);
+            if (library == null) continue;
+            String[] parents = library.parents.get(className);
+            if (parents.length > 0) hierarchy.put(className, parents);
+            queue.addAll(Arrays.asList(parents));
+            added++;
+            if (mapped.contains(className)) found.put(className, library);
+        }
+        System.err.printf("found %d classes on the class path\n", added);
+        List<ClassHeader> headers = new ArrayList<>(found.size());
+        found.forEach((className, library) -> headers.add(library.readMembers(className)));
+        stage.end(added, headers.size());
+        return headers;
+    }
+}
@@ -0,0 +1,624 @@
+import org.apache.bcel.classfile.ClassFormatException;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Remaps a class file without building the BCEL object model. Only the constant pool is decoded;
+ * fields, methods and attributes are located, but their contents, including all bytecode, are
+ * copied as they are. New names and descriptors are appended to the constant pool and the indices
+ * that refer to them are patched in place.
+ *
+ * The result is the same as that of {@link Remapper}: the same constants are added in the same
+ * order and LocalVariableTypeTable attributes are dropped as well, so both produce the same bytes
+ * for class files that BCEL writes back unchanged.
+ */
+public class ClassRewriter {
+    private static final int UTF8 = 1;
+    private static final int CLASS = 7;
+    private static final int FIELDREF = 9;
+    private static final int METHODREF = 10;
+    private static final int INTERFACE_METHODREF = 11;
+    private static final int NAME_AND_TYPE = 12;
+    private static final int METHOD_HANDLE = 15;
+    private static final int METHOD_TYPE = 16;
+    private static final int INVOKE_DYNAMIC = 18;
+
+    private static final int ACC_INTERFACE = 0x0200;
+    private static final int ACC_ABSTRACT = 0x0400;
+
+    private static class Attribute {
+        final String name;
+        final int offset; // of attribute_name_index
+        final int length;
+        Attribute[] children; // attributes of a Code attribute
+        int childrenOffset; // of attributes_count of a Code attribute
+
+        Attribute(String name, int offset, int length) {
+            this.name = name;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static class Member {
+        final int offset; // of access_flags
+        final Attribute[] attributes;
+
+        Member(int offset, Attribute[] attributes) {
+            this.offset = offset;
+            this.attributes = attributes;
+        }
+    }
+
+    private final SignatureMapper signatures;
+    private final Map<String, String> inverseClassNameMap;
+    private final MemberResolver resolver;
+    private final RunReport.ClassCounters counters = new RunReport.ClassCounters();
+    private final String obfuscatedClassName;
+
+    private final byte[] data; // copy of the class file, indices are patched in place
+    private final int cpCount;
+    private final int[] offsets; // offset of the tag of each constant
+    private final String[] strings; // Utf8 constants
+    private final int cpEnd;
+    private final Member[] fields;
+    private final Member[] methods;
+    private final Attribute[] attributes;
+    private int pos; // parser position
+
+    // constants appended by remap(): String for Utf8, int[] { name, descriptor } for NameAndType
+    private final List<Object> added = new ArrayList<>();
+    private final List<int[]> removed = new ArrayList<>(); // [from, to) ranges left out by dump()
+    private Map<String, Integer> stringIndexMap;
+    private Map<ImmutablePair<String, String>, Integer> nameAndTypeIndexMap;
+
+    ClassRewriter(SignatureMapper signatures, Map<String, String> inverseClassNameMap, MemberResolver resolver, byte[] classFile) {
+        this.signatures = signatures;
+        this.inverseClassNameMap = inverseClassNameMap;
+        this.resolver = resolver;
+        data = classFile.clone();
+        try {
+            if (u4(0) != 0xcafebabe) {
+                throw new ClassFormatException("not a class file");
+            }
+            cpCount = u2(8);
+            offsets = new int[cpCount];
+            strings = new String[cpCount];
+            pos = 10;
+            for (int i = 1; i < cpCount; i++) {
+                offsets[i] = pos;
+                int tag = data[pos] & 0xff;
+                switch (tag) {
+                    case UTF8: {
+                        int length = u2(pos + 1);
+                        strings[i] = decodeUtf8(pos + 3, length);
+                        pos += 3 + length;
+                        break;
+                    }
+                    case CLASS:
+                    case 8: // String
+                    case METHOD_TYPE:
+                    case 19: // Module
+                    case 20: // Package
+                        pos += 3;
+                        break;
+                    case METHOD_HANDLE:
+                        pos += 4;
+                        break;
+                    case 3: // Integer
+                    case 4: // Float
+                    case FIELDREF:
+                    case METHODREF:
+                    case INTERFACE_METHODREF:
+                    case NAME_AND_TYPE:
+                    case 17: // Dynamic
+                    case INVOKE_DYNAMIC:
+                        pos += 5;
+                        break;
+                    case 5: // Long
+                    case 6: // Double
+                        pos += 9;
+                        i++; // takes two entries
+                        break;
+                    default:
+                        throw new ClassFormatException("invalid constant pool tag " + tag);
+                }
+            }
+            cpEnd = pos;
+            pos += 6; // access_flags, this_class, super_class
+            pos += 2 + 2 * u2(pos); // interfaces
+            fields = readMembers();
+            methods = readMembers();
+            attributes = readAttributes();
+            if (pos > data.length) {
+                throw new ClassFormatException("truncated class file");
+            }
+            if (pos < data.length) {
+                // BCEL does not write them either
+                removed.add(new int[] { pos, data.length });
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new ClassFormatException("truncated class file");
+        }
+
+        obfuscatedClassName = getClassName();
+    }
+
+    private int u2(int offset) {
+        return (data[offset] & 0xff) << 8 | data[offset + 1] & 0xff;
+    }
+
+    private int u4(int offset) {
+        return u2(offset) << 16 | u2(offset + 2);
+    }
+
+    private void setU2(int offset, int value) {
+        data[offset] = (byte) (value >> 8);
+        data[offset + 1] = (byte) value;
+    }
+
+    private static void putU2(byte[] b, int offset, int value) {
+        b[offset] = (byte) (value >> 8);
+        b[offset + 1] = (byte) value;
+    }
+
+    // modified UTF-8 as in DataInput.readUTF
+    private String decodeUtf8(int from, int length) {
+        int end = from + length;
+        int i = from;
+        while (i < end && data[i] >= 0) i++;
+        if (i == end) {
+            return new String(data, from, length, StandardCharsets.ISO_8859_1);
+        }
+        char[] chars = new char[length];
+        int n = 0;
+        for (i = from; i < end; ) {
+            int c = data[i] & 0xff;
+            if (c < 0x80) {
+                chars[n++] = (char) c;
+                i++;
+            } else if ((c & 0xe0) == 0xc0 && i + 1 < end && (data[i + 1] & 0xc0) == 0x80) {
+                chars[n++] = (char) ((c & 0x1f) << 6 | data[i + 1] & 0x3f);
+                i += 2;
+            } else if ((c & 0xf0) == 0xe0 && i + 2 < end && (data[i + 1] & 0xc0) == 0x80 && (data[i + 2] & 0xc0) == 0x80) {
+                chars[n++] = (char) ((c & 0x0f) << 12 | (data[i + 1] & 0x3f) << 6 | data[i + 2] & 0x3f);
+                i += 3;
+            } else {
+                throw new ClassFormatException("malformed Utf8 constant at offset " + from);
+            }
+        }
+        return new String(chars, 0, n);
+    }
+
+    private static int encodedLength(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            length += c >= 1 && c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+        }
+        return length;
+    }
+
+    private static int encodeUtf8(String s, byte[] b, int offset) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 1 && c < 0x80) {
+                b[offset++] = (byte) c;
+            } else if (c < 0x800) {
+                b[offset++] = (byte) (0xc0 | c >> 6);
+                b[offset++] = (byte) (0x80 | c & 0x3f);
+            } else {
+                b[offset++] = (byte) (0xe0 | c >> 12);
+                b[offset++] = (byte) (0x80 | c >> 6 & 0x3f);
+                b[offset++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+        return offset;
+    }
+
+    private Attribute[] readAttributes() {
+        Attribute[] result = new Attribute[u2(pos)];
+        pos += 2;
+        for (int i = 0; i < result.length; i++) {
+            Attribute attr = new Attribute(getString(u2(pos)), pos, u4(pos + 2));
+            pos += 6;
+            int end = pos + attr.length;
+            if ("Code".equals(attr.name)) {
+                pos += 8 + u4(pos + 4); // max_stack, max_locals, code_length, code
+                pos += 2 + 8 * u2(pos); // exception_table
+                attr.childrenOffset = pos;
+                attr.children = readAttributes();
+            }
+            pos = end;
+            result[i] = attr;
+        }
+        return result;
+    }
+
+    private Member[] readMembers() {
+        Member[] result = new Member[u2(pos)];
+        pos += 2;
+        for (int i = 0; i < result.length; i++) {
+            int offset = pos;
+            pos += 6; // access_flags, name_index, descriptor_index
+            result[i] = new Member(offset, readAttributes());
+        }
+        return result;
+    }
+
+    private String getString(int index) {
+        if (index >= cpCount) return (String) added.get(index - cpCount);
+        String s = strings[index];
+        if (s == null) {
+            throw new ClassFormatException("constant " + index + " is not a Utf8 constant");
+        }
+        return s;
+    }
+
+    private int tag(int index) {
+        return data[offsets[index]] & 0xff;
+    }
+
+    // name of a Class constant as it is at the moment
+    private String getClassName(int index) {
+        return getString(u2(offsets[index] + 1));
+    }
+
+    private int getStringIndex(String s) {
+        Integer index = stringIndexMap.get(s);
+        if (index != null) return index;
+        index = cpCount + added.size();
+        added.add(s);
+        stringIndexMap.put(s, index);
+        return index;
+    }
+
+    private String resolveField(String owner, String name) {
+        counters.lookup(resolver.getDepth(owner));
+        return resolver.mapFieldName(owner, name);
+    }
+
+    private String resolveMethod(String owner, String name, String desc) {
+        counters.lookup(resolver.getDepth(owner));
+        return resolver.mapMethodName(owner, name, desc);
+    }
+
+    private String mapFieldName(String name) {
+        String tmp = resolveField(obfuscatedClassName, name);
+        return tmp == null ? name : tmp;
+    }
+
+    private String mapMethodName(String name, String desc) {
+        String tmp = resolveMethod(obfuscatedClassName, name, desc);
+        return tmp == null ? name : tmp;
+    }
+
+    private void indexConstants() {
+        stringIndexMap = new HashMap<>(cpCount * 2);
+        nameAndTypeIndexMap = new HashMap<>();
+        for (int i = 1; i < cpCount; i++) {
+            if (offsets[i] == 0) continue;
+            if (tag(i) == UTF8) {
+                stringIndexMap.put(strings[i], i);
+            } else if (tag(i) == NAME_AND_TYPE) {
+                nameAndTypeIndexMap.put(new ImmutablePair<>(getString(u2(offsets[i] + 1)), getString(u2(offsets[i] + 3))), i);
+            }
+        }
+    }
+
+    private int getNameAndTypeIndex(String name, String desc) {
+        ImmutablePair<String, String> nameAndType = new ImmutablePair<>(name, desc);
+        Integer index = nameAndTypeIndexMap.get(nameAndType);
+        if (index == null) {
+            int nameIndex = getStringIndex(name);
+            int typeIndex = getStringIndex(desc);
+            index = cpCount + added.size();
+            added.add(new int[] { nameIndex, typeIndex });
+            nameAndTypeIndexMap.put(nameAndType, index);
+        }
+        return index;
+    }
+
+    // same steps in the same order as Remapper.remap(), so constants are added in the same order
+    void remap() {
+        indexConstants();
+        // fix Class and NameAndType constants
+        for (int i = 1; i < cpCount; i++) {
+            if (offsets[i] == 0) continue;
+            int offset = offsets[i];
+            if (tag(i) == CLASS) {
+                String className = getString(u2(offset + 1));
+                String originalClassName = className.startsWith("[") ? signatures.map(className) : signatures.mapClassName(className);
+                if (!originalClassName.equals(className)) {
+                    setU2(offset + 1, getStringIndex(originalClassName));
+                }
+            } else if (tag(i) == NAME_AND_TYPE) {
+                String desc = getString(u2(offset + 3));
+                setU2(offset + 3, getStringIndex(signatures.map(desc)));
+            }
+        }
+        for (int i = 1; i < cpCount; i++) {
+            if (offsets[i] == 0) continue;
+            int offset = offsets[i];
+            int tag = tag(i);
+            if (tag == FIELDREF || tag == METHODREF || tag == INTERFACE_METHODREF) {
+                String className = getClassName(u2(offset + 1));
+                int nameAndType = offsets[u2(offset + 3)];
+                String memberName = getString(u2(nameAndType + 1));
+                String desc = getString(u2(nameAndType + 3));
+                String mappedDesc = signatures.map(desc);
+                String obfClassName = inverseClassNameMap.getOrDefault(className, className);
+                String mappedMemberName;
+                if (tag == FIELDREF) {
+                    mappedMemberName = resolveField(obfClassName, memberName);
+                } else {
+                    mappedMemberName = resolveMethod(obfClassName, memberName, mappedDesc);
+                }
+                if (mappedMemberName == null) mappedMemberName = memberName;
+                if (!mappedMemberName.equals(memberName) || !mappedDesc.equals(desc)) {
+                    setU2(offset + 3, getNameAndTypeIndex(mappedMemberName, mappedDesc));
+                }
+            } else if (tag == METHOD_TYPE) {
+                String desc = getString(u2(offset + 1));
+                setU2(offset + 1, getStringIndex(signatures.map(desc)));
+            }
+        }
+
+        // class signature and inner class names
+        for (Attribute attr : attributes) {
+            int body = attr.offset + 6;
+            if ("Signature".equals(attr.name)) {
+                setU2(body, getStringIndex(signatures.map(getString(u2(body)))));
+            } else if ("InnerClasses".equals(attr.name)) {
+                for (int k = 0, n = u2(body); k < n; k++) {
+                    int entry = body + 2 + 8 * k;
+                    int innerClassIndex = u2(entry);
+                    int outerClassIndex = u2(entry + 2);
+                    if (outerClassIndex > 0 && innerClassIndex > 0) {
+                        String outerClassName = getClassName(outerClassIndex);
+                        String innerClassName = getClassName(innerClassIndex);
+                        if (innerClassName.startsWith(outerClassName + "$")) {
+                            String simpleInnerClassName = innerClassName.substring(outerClassName.length() + 1);
+                            setU2(entry + 4, getStringIndex(simpleInnerClassName));
+                        } else {
+                            System.err.printf("outer class name: %s, inner class name: %s\n", outerClassName, innerClassName);
+                        }
+                    }
+                }
+            }
+        }
+
+        for (Member field : fields) {
+            String fieldName = getString(u2(field.offset + 2));
+            String desc = getString(u2(field.offset + 4));
+            String mappedFieldName = mapFieldName(fieldName);
+            String mappedDesc = signatures.map(desc);
+            if (!mappedFieldName.equals(fieldName)) {
+                setU2(field.offset + 2, getStringIndex(mappedFieldName));
+            }
+            if (!mappedDesc.equals(desc)) {
+                setU2(field.offset + 4, getStringIndex(mappedDesc));
+            }
+            for (Attribute attr : field.attributes) {
+                if ("Signature".equals(attr.name)) {
+                    setU2(attr.offset + 6, getStringIndex(signatures.map(getString(u2(attr.offset + 6)))));
+                }
+            }
+        }
+
+        for (int methodId = 0; methodId < methods.length; methodId++) {
+            Member method = methods[methodId];
+            String methodName = getString(u2(method.offset + 2));
+            String desc = getString(u2(method.offset + 4));
+            String mappedDesc = signatures.map(desc);
+            String mappedMethodName = mapMethodName(methodName, mappedDesc);
+            if (!mappedMethodName.equals(methodName)) {
+                setU2(method.offset + 2, getStringIndex(mappedMethodName));
+            }
+            if (!mappedDesc.equals(desc)) {
+                setU2(method.offset + 4, getStringIndex(mappedDesc));
+            }
+            for (Attribute attr : method.attributes) {
+                if (attr.children != null) {
+                    remapCode(attr, methodId);
+                } else if ("Signature".equals(attr.name)) {
+                    setU2(attr.offset + 6, getStringIndex(signatures.map(getString(u2(attr.offset + 6)))));
+                }
+            }
+        }
+
+        if ((u2(cpEnd) & ACC_INTERFACE) != 0) {
+            // BCEL marks all interfaces abstract when it reads them
+            setU2(cpEnd, u2(cpEnd) | ACC_ABSTRACT);
+        }
+    }
+
+    /**
+     * Renames the fields and methods of the class and the members it refers to, but keeps all
+     * class names, descriptors and signatures obfuscated. This is for a class that is remapped
+     * while it is loaded, whose name the JVM has already fixed, so the classes it refers to
+     * must keep theirs too. Lambdas are renamed with the methods they implement. The SourceFile
+     * attribute is set to the file of the original class, which puts the original name into
+     * stack traces.
+     */
+    void remapMembers() {
+        indexConstants();
+        for (int i = 1; i < cpCount; i++) {
+            if (offsets[i] == 0) continue;
+            int offset = offsets[i];
+            int tag = tag(i);
+            if (tag == FIELDREF || tag == METHODREF || tag == INTERFACE_METHODREF) {
+                String className = getClassName(u2(offset + 1));
+                int nameAndType = offsets[u2(offset + 3)];
+                String memberName = getString(u2(nameAndType + 1));
+                String desc = getString(u2(nameAndType + 3));
+                // the index is keyed by descriptors with original class names
+                String mappedMemberName = tag == FIELDREF ? resolveField(className, memberName)
+                        : resolveMethod(className, memberName, signatures.map(desc));
+                if (mappedMemberName != null && !mappedMemberName.equals(memberName)) {
+                    setU2(offset + 3, getNameAndTypeIndex(mappedMemberName, desc));
+                }
+            } else if (tag == INVOKE_DYNAMIC) {
+                remapLambda(offset);
+            }
+        }
+
+        for (Attribute attr : attributes) {
+            if ("SourceFile".equals(attr.name)) {
+                String originalClassName = signatures.mapClassName(obfuscatedClassName);
+                if (!originalClassName.equals(obfuscatedClassName)) {
+                    String outerClassName = originalClassName.substring(originalClassName.lastIndexOf('/') + 1);
+                    int dollar = outerClassName.indexOf('$');
+                    if (dollar > 0) outerClassName = outerClassName.substring(0, dollar);
+                    setU2(attr.offset + 6, getStringIndex(outerClassName + ".java"));
+                }
+            }
+        }
+
+        for (Member field : fields) {
+            String fieldName = getString(u2(field.offset + 2));
+            String mappedFieldName = mapFieldName(fieldName);
+            if (!mappedFieldName.equals(fieldName)) {
+                setU2(field.offset + 2, getStringIndex(mappedFieldName));
+            }
+        }
+
+        for (Member method : methods) {
+            String methodName = getString(u2(method.offset + 2));
+            String desc = getString(u2(method.offset + 4));
+            String mappedMethodName = mapMethodName(methodName, signatures.map(desc));
+            if (!mappedMethodName.equals(methodName)) {
+                setU2(method.offset + 2, getStringIndex(mappedMethodName));
+            }
+        }
+    }
+
+    // a lambda implements the method of its functional interface by name, so the name of the
+    // call site has to follow the method when it is renamed
+    private void remapLambda(int offset) {
+        int nameAndType = offsets[u2(offset + 3)];
+        String name = getString(u2(nameAndType + 1));
+        String desc = getString(u2(nameAndType + 3));
+        int[] bootstrapArgs = getLambdaBootstrapArgs(u2(offset + 1));
+        if (bootstrapArgs == null || bootstrapArgs.length == 0 || tag(bootstrapArgs[0]) != METHOD_TYPE) return;
+        String returnType = desc.substring(desc.indexOf(')') + 1);
+        if (!returnType.startsWith("L")) return;
+        String interfaceName = returnType.substring(1, returnType.length() - 1);
+        String samDesc = getString(u2(offsets[bootstrapArgs[0]] + 1));
+        String mappedName = resolveMethod(interfaceName, name, signatures.map(samDesc));
+        if (mappedName != null && !mappedName.equals(name)) {
+            setU2(offset + 3, getNameAndTypeIndex(mappedName, desc));
+        }
+    }
+
+    // the arguments of a bootstrap method of LambdaMetafactory, or null for other bootstrap methods
+    private int[] getLambdaBootstrapArgs(int bootstrapIndex) {
+        for (Attribute attr : attributes) {
+            if (!"BootstrapMethods".equals(attr.name)) continue;
+            int entry = attr.offset + 8;
+            for (int k = 0, n = u2(attr.offset + 6); k < n; k++) {
+                int nArgs = u2(entry + 2);
+                if (k == bootstrapIndex) {
+                    int handle = u2(entry);
+                    if (tag(handle) != METHOD_HANDLE) return null;
+                    int owner = u2(offsets[u2(offsets[handle] + 2)] + 1);
+                    if (!"java/lang/invoke/LambdaMetafactory".equals(getClassName(owner))) return null;
+                    int[] args = new int[nArgs];
+                    for (int a = 0; a < nArgs; a++) {
+                        args[a] = u2(entry + 4 + 2 * a);
+                    }
+                    return args;
+                }
+                entry += 4 + 2 * nArgs;
+            }
+        }
+        return null;
+    }
+
+    private void remapCode(Attribute code, int methodId) {
+        int kept = 0;
+        int removedLength = 0;
+        for (Attribute attr : code.children) {
+            if ("LocalVariableTypeTable".equals(attr.name)) {
+                removed.add(new int[] { attr.offset, attr.offset + 6 + attr.length });
+                removedLength += 6 + attr.length;
+                continue;
+            }
+            kept++;
+            if ("LocalVariableTable".equals(attr.name)) {
+                int body = attr.offset + 6;
+                for (int lvid = 0, n = u2(body); lvid < n; lvid++) {
+                    int entry = body + 2 + 10 * lvid;
+                    String lvName = getString(u2(entry + 4));
+                    if (lvName.contains("\u2603")) /* the infamous snowman character */ {
+                        setU2(entry + 4, getStringIndex(String.format("local%d_%d", methodId, lvid)));
+                    }
+                    setU2(entry + 6, getStringIndex(signatures.map(getString(u2(entry + 6)))));
+                }
+            }
+        }
+        if (removedLength > 0) {
+            setU2(code.childrenOffset, kept);
+            int length = code.length - removedLength;
+            setU2(code.offset + 2, length >>> 16);
+            setU2(code.offset + 4, length);
+        }
+    }
+
+    // '/'-separated name of the class, the original name after remap() has been called
+    String getClassName() {
+        return getClassName(u2(cpEnd + 2));
+    }
+
+    RunReport.ClassCounters getCounters() {
+        counters.addedConstants = added.size();
+        return counters;
+    }
+
+    byte[] dump() {
+        int count = cpCount + added.size();
+        if (count > 0xffff) {
+            throw new ClassFormatException(getClassName() + ": too many constants");
+        }
+        int size = data.length;
+        for (Object c : added) {
+            size += c instanceof String ? 3 + encodedLength((String) c) : 5;
+        }
+        for (int[] range : removed) {
+            size -= range[1] - range[0];
+        }
+        byte[] out = new byte[size];
+        System.arraycopy(data, 0, out, 0, cpEnd);
+        putU2(out, 8, count);
+        int p = cpEnd;
+        for (Object c : added) {
+            if (c instanceof String) {
+                String s = (String) c;
+                int length = encodedLength(s);
+                if (length > 0xffff) {
+                    throw new ClassFormatException(getClassName() + ": constant is too long");
+                }
+                out[p] = UTF8;
+                putU2(out, p + 1, length);
+                p = encodeUtf8(s, out, p + 3);
+            } else {
+                int[] nameAndType = (int[]) c;
+                out[p] = NAME_AND_TYPE;
+                putU2(out, p + 1, nameAndType[0]);
+                putU2(out, p + 3, nameAndType[1]);
+                p += 5;
+            }
+        }
+        removed.sort(Comparator.comparingInt(range -> range[0]));
+        int from = cpEnd;
+        for (int[] range : removed) {
+            System.arraycopy(data, from, out, p, range[0] - from);
+            p += range[0] - from;
+            from = range[1];
+        }
+        System.arraycopy(data, from, out, p, data.length - from);
+        return out;
+    }
+}
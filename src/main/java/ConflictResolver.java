@@ -0,0 +1,88 @@
+import org.apache.commons.lang3.tuple.ImmutablePair;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Renames members that are not in the mapping but have the original name of a mapped member of
+ * the same class, e.g. an unmapped field {@code count} next to a field mapped to {@code count}.
+ * This runs once before any class is remapped: the renames are found in parallel without
+ * touching the mappings, then added to them in input order, so they are the same at any thread
+ * count. The mappings are not modified after this.
+ */
+public class ConflictResolver {
+    private static class Rename {
+        final String name;
+        final String descriptor; // null for fields
+        final String newName;
+
+        Rename(String name, String descriptor, String newName) {
+            this.name = name;
+            this.descriptor = descriptor;
+            this.newName = newName;
+        }
+    }
+
+    private ConflictResolver() {
+    }
+
+    private static List<Rename> findRenames(Remapper.ClassMapping classMapping, SignatureMapper signatures, ClassHeader header) {
+        SymbolTable symbols = classMapping.symbols;
+        Set<String> originalFields = new HashSet<>();
+        classMapping.fieldMap.forEach((badName, goodName) -> {
+            originalFields.add(goodName);
+        });
+        Set<ImmutablePair<String, String>> originalMethods = new HashSet<>();
+        classMapping.methodMap.forEach((badNameAndType, goodName) -> {
+            originalMethods.add(new ImmutablePair<>(goodName, symbols.getSymbol(SymbolTable.descId(badNameAndType))));
+        });
+        List<Rename> renames = new ArrayList<>();
+        Set<String> renamedFields = new HashSet<>();
+        for (String fieldName : header.fieldNames) {
+            if (classMapping.mapFieldName(fieldName) == null && originalFields.contains(fieldName) && renamedFields.add(fieldName)) {
+                renames.add(new Rename(fieldName, null, fieldName + "_0"));
+            }
+        }
+        for (int i = 0; i < header.methodNames.length; i++) {
+            String methodName = header.methodNames[i];
+            String methodDesc = signatures.map(header.methodDescriptors[i]);
+            if (classMapping.mapMethodName(methodName, methodDesc) == null /* method name not in obfuscation mapping */) {
+                if (originalMethods.contains(new ImmutablePair<>(methodName, methodDesc))) {
+                    renames.add(new Rename(methodName, methodDesc, methodName + "_" + i));
+                }
+            }
+        }
+        return renames;
+    }
+
+    /** Finds and adds the renames for the given input classes, which must have their members read. */
+    public static void run(WorkPool pool, List<ClassHeader> headers, Map<String, Remapper.ClassMapping> obfuscatedMappings,
+                           SignatureMapper signatures) throws IOException, InterruptedException {
+        List<Integer> indices = new ArrayList<>();
+        for (int i = 0; i < headers.size(); i++) {
+            ClassHeader header = headers.get(i);
+            if (header != null && obfuscatedMappings.containsKey(header.name)) {
+                indices.add(i);
+            }
+        }
+        List<List<Rename>> renames = new ArrayList<>(Collections.nCopies(headers.size(), null));
+        pool.run("conflicts", indices, i -> headers.get(i).methodNames.length + headers.get(i).fieldNames.length, i -> {
+            ClassHeader header = headers.get(i);
+            renames.set(i, findRenames(obfuscatedMappings.get(header.name), signatures, header));
+        }).print();
+
+        for (int i : indices) {
+            Remapper.ClassMapping classMapping = obfuscatedMappings.get(headers.get(i).name);
+            SymbolTable symbols = classMapping.symbols;
+            for (Rename rename : renames.get(i)) {
+                if (rename.descriptor == null) {
+                    System.out.printf("in class %s: field %s -> %s\n", classMapping.originalName, rename.name, rename.newName);
+                    classMapping.fieldMap.put(symbols.intern(rename.name), rename.newName);
+                } else {
+                    System.out.printf("in class %s: method %s -> %s\n", classMapping.originalName, rename.name, rename.newName);
+                    classMapping.methodMap.put(SymbolTable.memberKey(symbols.intern(rename.name), symbols.intern(rename.descriptor)), rename.newName);
+                }
+            }
+        }
+    }
+}
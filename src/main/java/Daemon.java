@@ -0,0 +1,181 @@
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Daemon mode. The server listens on a loopback port and runs the jobs sent by clients on one
+ * shared worker pool. Parsed mappings stay in memory (see {@link MappingStore}) and the remapping
+ * code stays compiled, so a job does not pay for JVM startup, mapping parsing and warmup. Jobs
+ * from several clients run at the same time.
+ *
+ * Anyone who can connect to a loopback port could make the daemon read, write and delete files
+ * as its user, so the daemon writes a random token to a file that only its user can read (see
+ * {@link #getTokenPath}) and drops connections that do not start with it. A client sends the
+ * token and the options of one job with absolute paths: an int count followed by the options as
+ * strings. The server replies with a boolean for success, an error message, a summary
+ * of the stage timings and the JSON report of the job, all written with {@link DataOutputStream}
+ * except the report, which is an int length followed by UTF-8.
+ */
+public class Daemon {
+    private static final int MAPPINGS_KEPT = 4;
+    private static final int MAX_ARGS = 1000;
+    private static final int TOKEN_TIMEOUT_MS = 10000;
+
+    private Daemon() {
+    }
+
+    /** Returns the file with the token of the daemon on the given port. */
+    public static Path getTokenPath(int port) {
+        return Paths.get(System.getProperty("user.home"), ".cache", "mc-deobf", "daemon", port + ".token");
+    }
+
+    // writes a new token that only the current user can read, replacing the one of an earlier daemon
+    private static String writeToken(int port) throws IOException {
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        String token = Util.toHex(bytes);
+        Path path = getTokenPath(port);
+        boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+        FileAttribute<?>[] dirAttributes = posix
+                ? new FileAttribute<?>[] { PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")) }
+                : new FileAttribute<?>[0];
+        FileAttribute<?>[] fileAttributes = posix
+                ? new FileAttribute<?>[] { PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")) }
+                : new FileAttribute<?>[0];
+        Files.createDirectories(path.getParent(), dirAttributes);
+        // created anew so the permissions apply from the start, before the token is in it
+        Files.deleteIfExists(path);
+        Files.createFile(path, fileAttributes);
+        Files.write(path, token.getBytes(StandardCharsets.US_ASCII));
+        path.toFile().deleteOnExit();
+        return token;
+    }
+
+    private static String readToken(int port) throws IOException {
+        Path path = getTokenPath(port);
+        try {
+            return new String(Files.readAllBytes(path), StandardCharsets.US_ASCII).trim();
+        } catch (NoSuchFileException e) {
+            throw new IOException("no daemon token in " + path + ", is the daemon running on port " + port + "?");
+        }
+    }
+
+    /** Runs the server until the JVM is stopped. */
+    public static void serve(int port, int nWorker) throws IOException {
+        WorkPool pool = new WorkPool(nWorker);
+        MappingStore store = new MappingStore(MAPPINGS_KEPT);
+        AtomicInteger jobNo = new AtomicInteger();
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            byte[] token = writeToken(server.getLocalPort()).getBytes(StandardCharsets.US_ASCII);
+            System.err.printf("listening on %s:%d with %d worker threads\n", server.getInetAddress().getHostAddress(),
+                    server.getLocalPort(), nWorker);
+            while (true) {
+                Socket socket = server.accept();
+                int no = jobNo.incrementAndGet();
+                Thread t = new Thread(() -> handle(socket, no, token, pool, store), "job-" + no);
+                t.setDaemon(true);
+                t.start();
+            }
+        }
+    }
+
+    private static void handle(Socket socket, int no, byte[] token, WorkPool pool, MappingStore store) {
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            s.setSoTimeout(TOKEN_TIMEOUT_MS);
+            if (!MessageDigest.isEqual(in.readUTF().getBytes(StandardCharsets.US_ASCII), token)) {
+                System.err.printf("job %d: rejected, wrong token\n", no);
+                out.writeBoolean(false);
+                out.writeUTF("the daemon rejected the token");
+                out.writeUTF("");
+                out.writeInt(0);
+                return;
+            }
+            s.setSoTimeout(0);
+            int argc = in.readInt();
+            if (argc < 0 || argc > MAX_ARGS) throw new IOException("invalid request");
+            String[] args = new String[argc];
+            for (int i = 0; i < argc; i++) {
+                args[i] = in.readUTF();
+            }
+            String error = null;
+            RunReport report = null;
+            try {
+                Options options = new Options();
+                Job.addOptions(options);
+                CommandLine cl = new DefaultParser().parse(options, args);
+                Job job = Job.parse(cl);
+                System.err.printf("job %d: %s -> %s\n", no, job.inputPath, job.outputPath);
+                report = job.run(pool, store);
+                System.err.printf("job %d: done\n", no);
+            } catch (ParseException | IOException | InvalidInputException | RuntimeException e) {
+                error = e.getMessage() != null ? e.getMessage() : e.toString();
+                System.err.printf("job %d: failed: %s\n", no, error);
+            } catch (InterruptedException e) {
+                error = "interrupted";
+                Thread.currentThread().interrupt();
+            }
+            out.writeBoolean(error == null);
+            out.writeUTF(error == null ? "" : error);
+            out.writeUTF(report == null ? "" : report.summary());
+            byte[] json = report == null ? new byte[0] : report.toJson().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(json.length);
+            out.write(json);
+        } catch (IOException e) {
+            System.err.printf("job %d: %s\n", no, e.getMessage());
+        }
+    }
+
+    /**
+     * Sends a job to the server on the given port and waits for it to finish. Prints the stage
+     * timings and writes the report if {@code reportPath} is not null. Returns false if the job
+     * failed.
+     */
+    public static boolean submit(int port, Job job, String reportPath) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            out.writeUTF(readToken(port));
+            List<String> args = job.toArgs();
+            out.writeInt(args.size());
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            boolean success = in.readBoolean();
+            String error = in.readUTF();
+            String summary = in.readUTF();
+            byte[] json = new byte[in.readInt()];
+            in.readFully(json);
+            if (!success) {
+                System.err.println(error);
+                return false;
+            }
+            System.err.print(summary);
+            if (reportPath != null) {
+                RunReport.write(reportPath, new String(json, StandardCharsets.UTF_8));
+                System.err.println("wrote report to " + reportPath);
+            }
+            return true;
+        }
+    }
+}
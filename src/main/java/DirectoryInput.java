@@ -0,0 +1,69 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+public class DirectoryInput implements Input {
+    private final Path root;
+
+    public DirectoryInput(String path) {
+        root = Paths.get(path);
+    }
+
+    public DirectoryInput(Path root) {
+        this.root = root;
+    }
+
+    class Entry implements Input.Entry {
+        final Path path;
+        private final String name;
+        private final long size;
+        private final long time;
+
+        private Entry(Path path, BasicFileAttributes attrs) {
+            this.path = path;
+            this.name = root.relativize(path).toString().replace('\\', '/');
+            this.size = attrs.size();
+            this.time = attrs.lastModifiedTime().toMillis();
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public long getTime() {
+            return time;
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            return Files.newInputStream(path);
+        }
+    }
+
+    @Override
+    public List<Input.Entry> list() throws IOException {
+        List<Input.Entry> entries = new ArrayList<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                entries.add(new Entry(path, attrs));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return entries;
+    }
+
+    @Override
+    public void close() {
+    }
+}
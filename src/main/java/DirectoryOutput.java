@@ -0,0 +1,58 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+
+public class DirectoryOutput implements Output {
+    private final Path root;
+
+    public DirectoryOutput(String path) {
+        root = Paths.get(path);
+    }
+
+    @Override
+    public void write(String name, byte[] data, long time) throws IOException {
+        Path path = root.resolve(name);
+        Files.createDirectories(path.getParent());
+        Files.write(path, data);
+    }
+
+    @Override
+    public void copy(Input.Entry entry) throws IOException {
+        Path path = root.resolve(entry.getName());
+        Files.createDirectories(path.getParent());
+        if (entry instanceof DirectoryInput.Entry) {
+            Path source = ((DirectoryInput.Entry) entry).path;
+            // Files.copy leaves a file linked by an earlier run with --link alone
+            if (Files.exists(path) && Files.isSameFile(source, path)) Files.delete(path);
+            Files.copy(source, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+            return;
+        }
+        try (InputStream in = entry.open()) {
+            Files.copy(in, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @Override
+    public void link(Input.Entry entry) throws IOException {
+        if (!(entry instanceof DirectoryInput.Entry)) {
+            copy(entry);
+            return;
+        }
+        Path source = ((DirectoryInput.Entry) entry).path;
+        Path path = root.resolve(entry.getName());
+        // linked by an earlier run
+        if (Files.exists(path) && Files.isSameFile(source, path)) return;
+        Files.createDirectories(path.getParent());
+        Files.deleteIfExists(path);
+        try {
+            Files.createLink(path, source);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            // another file system, or one without hard links
+            copy(entry);
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,26 @@
+/**
+ * Records stages and slow classes as events of a profiler. The JFR implementation is compiled
+ * separately from src/jfr/java, since JFR is not part of the Java 8 API; {@link #get} loads it
+ * only if the JVM has JFR and the build included it.
+ */
+interface EventRecorder {
+    /** Returns the recorder of this JVM, or null if events are not recorded. */
+    static EventRecorder get() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (EventRecorder) Class.forName("JfrEventRecorder").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /** Returns a started stage event. */
+    Object beginStage();
+
+    void commitStage(Object event, String name, long items, long size, long cpuNanos);
+
+    /** Returns a started event for a class, or null if no recording wants it. */
+    Object beginClass();
+
+    void commitClass(Object event, String className, long size, int constantsAdded);
+}
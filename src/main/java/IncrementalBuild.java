@@ -0,0 +1,306 @@
+import java.io.*;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Incremental mode. A manifest stored next to the output as {@code <output>.manifest} records,
+ * for every class of the previous run, the fingerprint of the input class (see
+ * {@link ClassFingerprinter}) and the name, CRC-32 and size of the class it was remapped to.
+ * Classes whose fingerprint is unchanged and whose output is still there are not remapped again:
+ * in a directory the file is left in place, in a jar the compressed entry is copied from the
+ * previous jar. Outputs of classes that are gone are deleted.
+ *
+ * <pre>
+ * mc-deobf manifest 1
+ * input name \t fingerprint \t output name \t CRC-32 \t size
+ * </pre>
+ * The manifest is deleted when a run starts and written when it has finished, so an interrupted
+ * run is followed by a full one.
+ */
+public class IncrementalBuild {
+    private static final String HEADER = "mc-deobf manifest 1";
+
+    private static class Record {
+        final String inputName;
+        final String fingerprint; // hex
+        final String outputName;
+        final long crc;
+        final long size;
+
+        Record(String inputName, String fingerprint, String outputName, long crc, long size) {
+            this.inputName = inputName;
+            this.fingerprint = fingerprint;
+            this.outputName = outputName;
+            this.crc = crc;
+            this.size = size;
+        }
+    }
+
+    /** Records CRC-32 and size of every file written through it. */
+    private static class TrackingOutput implements Output {
+        private final Output output;
+        final Map<String, long[]> written = new ConcurrentHashMap<>();
+
+        TrackingOutput(Output output) {
+            this.output = output;
+        }
+
+        @Override
+        public void write(String name, byte[] data, long time) throws IOException {
+            output.write(name, data, time);
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            written.put(name, new long[] { crc.getValue(), data.length });
+        }
+
+        @Override
+        public Prepared prepare(String name, byte[] data, long time) throws IOException {
+            // recorded here, where the data is at hand; a failed write is caught by carryOver
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            written.put(name, new long[] { crc.getValue(), data.length });
+            return output.prepare(name, data, time);
+        }
+
+        @Override
+        public void write(Prepared file) throws IOException {
+            output.write(file);
+        }
+
+        @Override
+        public void copy(Input.Entry entry) throws IOException {
+            output.copy(entry);
+        }
+
+        @Override
+        public void link(Input.Entry entry) throws IOException {
+            output.link(entry);
+        }
+
+        @Override
+        public void close() throws IOException {
+            output.close();
+        }
+    }
+
+    private final String outputPath;
+    private final Path manifestPath;
+    private final Map<String, Record> previous; // by input name, empty on the first run
+    private JarInput previousJar;
+    private Path previousJarPath;
+    private Map<String, JarInput.Entry> previousJarEntries;
+    private TrackingOutput output;
+    private final List<Record> unchanged = new ArrayList<>();
+    private List<ClassHeader> headers; // of all classes
+    private List<Input.Entry> changed;
+    private String[] changedFingerprints;
+    private String[] changedOutputNames;
+
+    public IncrementalBuild(String outputPath) throws IOException {
+        this.outputPath = outputPath;
+        manifestPath = Paths.get(getManifestPath(outputPath));
+        previous = load(manifestPath);
+        Files.deleteIfExists(manifestPath);
+    }
+
+    public static String getManifestPath(String outputPath) {
+        String path = outputPath;
+        while (path.length() > 1 && (path.endsWith("/") || path.endsWith(File.separator))) {
+            path = path.substring(0, path.length() - 1);
+        }
+        return path + ".manifest";
+    }
+
+    private static Map<String, Record> load(Path path) throws IOException {
+        Map<String, Record> records = new HashMap<>();
+        if (!Files.isRegularFile(path)) return records;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(reader.readLine())) return records;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length != 5) return new HashMap<>();
+                records.put(fields[0], new Record(fields[0], fields[1], fields[2], Long.parseLong(fields[3], 16), Long.parseLong(fields[4])));
+            }
+        } catch (NumberFormatException e) {
+            return new HashMap<>();
+        }
+        return records;
+    }
+
+    /**
+     * Opens the output. If the output is a jar left by a previous run, it is moved aside first so
+     * its entries can be copied.
+     */
+    public Output openOutput(int level, long fixedTime) throws IOException {
+        Path path = Paths.get(outputPath);
+        if (outputPath.endsWith(".jar") && !previous.isEmpty() && Files.isRegularFile(path)) {
+            previousJarPath = Paths.get(outputPath + ".old");
+            Files.move(path, previousJarPath, StandardCopyOption.REPLACE_EXISTING);
+            previousJar = new JarInput(previousJarPath.toString());
+            previousJarEntries = new HashMap<>();
+            for (Input.Entry entry : previousJar.list()) {
+                previousJarEntries.put(entry.getName(), (JarInput.Entry) entry);
+            }
+        }
+        output = new TrackingOutput(Output.open(outputPath, level, fixedTime));
+        return output;
+    }
+
+    /**
+     * Fingerprints all classes, which also builds the complete hierarchy, and carries over the
+     * outputs of unchanged classes. Returns the classes that need to be remapped.
+     */
+    public List<Input.Entry> selectChanged(List<Input.Entry> classEntries, WorkPool pool, Map<String, String[]> hierarchy,
+                                           Map<String, Remapper.ClassMapping> obfuscatedMappings, SignatureMapper signatures,
+                                           ClassPath classPath) throws IOException, InterruptedException {
+        System.err.println("fingerprinting classes...");
+        List<Integer> indices = new ArrayList<>(classEntries.size());
+        for (int i = 0; i < classEntries.size(); i++) {
+            indices.add(i);
+        }
+        ClassHeader[] headers = new ClassHeader[classEntries.size()];
+        byte[][] inputHashes = new byte[classEntries.size()][];
+        pool.run("hash", indices, i -> classEntries.get(i).getSize(), i -> {
+            Input.Entry entry = classEntries.get(i);
+            byte[] data;
+            try (InputStream in = entry.open()) {
+                data = Util.readFully(in, entry.getSize());
+            }
+            inputHashes[i] = ClassFingerprinter.newDigest().digest(data);
+            headers[i] = ClassHeader.readWithMembers(new ByteArrayInputStream(data));
+            headers[i].addTo(hierarchy);
+        }).print();
+
+        this.headers = new ArrayList<>(Arrays.asList(headers));
+        if (classPath != null) {
+            this.headers.addAll(classPath.resolve(pool, hierarchy, obfuscatedMappings.keySet()));
+        }
+        Map<String, ClassHeader> headersByName = new HashMap<>();
+        for (ClassHeader header : this.headers) {
+            headersByName.put(header.name, header);
+        }
+        ClassFingerprinter fingerprinter = new ClassFingerprinter(obfuscatedMappings, hierarchy, headersByName, getToolVersion());
+        String[] fingerprints = new String[classEntries.size()];
+        pool.run("fingerprint", indices, i -> classEntries.get(i).getSize(),
+                i -> fingerprints[i] = Util.toHex(fingerprinter.fingerprint(headers[i], inputHashes[i]))).print();
+
+        changed = new ArrayList<>();
+        List<String> fingerprintList = new ArrayList<>();
+        List<String> outputNameList = new ArrayList<>();
+        for (int i = 0; i < classEntries.size(); i++) {
+            Input.Entry entry = classEntries.get(i);
+            String outputName = signatures.mapClassName(headers[i].name) + ".class";
+            Record record = previous.get(entry.getName());
+            if (record != null && record.fingerprint.equals(fingerprints[i]) && record.outputName.equals(outputName)
+                    && carryOver(record)) {
+                unchanged.add(record);
+            } else {
+                changed.add(entry);
+                fingerprintList.add(fingerprints[i]);
+                outputNameList.add(outputName);
+            }
+        }
+        changedFingerprints = fingerprintList.toArray(new String[0]);
+        changedOutputNames = outputNameList.toArray(new String[0]);
+        System.err.printf("%d of %d classes unchanged since the last run\n", unchanged.size(), classEntries.size());
+        return changed;
+    }
+
+    /** Returns the number of classes carried over from the last run, after {@link #selectChanged}. */
+    public int getUnchangedCount() {
+        return unchanged.size();
+    }
+
+    /**
+     * Returns the headers of all classes and of the mapped library classes, including their
+     * members, after {@link #selectChanged}.
+     */
+    public List<ClassHeader> getHeaders() {
+        return headers;
+    }
+
+    // keeps the previous output of a class, returns false if it is missing or was modified
+    private boolean carryOver(Record record) throws IOException {
+        if (previousJarEntries != null) {
+            JarInput.Entry entry = previousJarEntries.get(record.outputName);
+            if (entry == null || (entry.crc & 0xffffffffL) != record.crc || entry.size != record.size) return false;
+            output.copy(entry);
+            return true;
+        }
+        if (outputPath.endsWith(".jar")) return false;
+        Path path = Paths.get(outputPath).resolve(record.outputName);
+        return Files.isRegularFile(path) && Files.size(path) == record.size;
+    }
+
+    /**
+     * Deletes outputs of classes that are gone and writes the manifest. Must be called after the
+     * output has been closed.
+     */
+    public void finish() throws IOException {
+        List<Record> records = new ArrayList<>(unchanged);
+        for (int i = 0; i < changed.size(); i++) {
+            long[] written = output.written.get(changedOutputNames[i]);
+            if (written != null) {
+                records.add(new Record(changed.get(i).getName(), changedFingerprints[i], changedOutputNames[i], written[0], written[1]));
+            }
+        }
+        if (previousJar != null) {
+            previousJar.close();
+            Files.delete(previousJarPath);
+        } else if (!outputPath.endsWith(".jar")) {
+            Set<String> outputNames = records.stream().map(r -> r.outputName).collect(Collectors.toSet());
+            for (Record record : previous.values()) {
+                if (!outputNames.contains(record.outputName)) {
+                    Files.deleteIfExists(Paths.get(outputPath).resolve(record.outputName));
+                }
+            }
+        }
+
+        records.sort(Comparator.comparing(r -> r.inputName));
+        Path tmp = Paths.get(manifestPath + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.write('\n');
+            for (Record record : records) {
+                writer.write(record.inputName + "\t" + record.fingerprint + "\t" + record.outputName + "\t"
+                        + Long.toHexString(record.crc) + "\t" + record.size + "\n");
+            }
+        }
+        Files.move(tmp, manifestPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // hash of the jar or class directory this tool runs from, so a rebuilt tool remaps everything
+    private static byte[] getToolVersion() throws IOException {
+        MessageDigest md = ClassFingerprinter.newDigest();
+        CodeSource source = IncrementalBuild.class.getProtectionDomain().getCodeSource();
+        if (source == null) return md.digest();
+        Path root;
+        try {
+            root = Paths.get(source.getLocation().toURI());
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return md.digest();
+        }
+        List<Path> files;
+        if (Files.isDirectory(root)) {
+            try (Stream<Path> stream = Files.walk(root)) {
+                files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+            }
+        } else {
+            files = Collections.singletonList(root);
+        }
+        for (Path file : files) {
+            md.update(root.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+            md.update(Files.readAllBytes(file));
+        }
+        return md.digest();
+    }
+}
@@ -0,0 +1,29 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * A tree of input files, either an unpacked directory or a jar.
+ */
+public interface Input extends Closeable {
+    interface Entry {
+        /** path relative to the root of the input, components separated with '/' */
+        String getName();
+        /** uncompressed size in bytes */
+        long getSize();
+        /** modification time in milliseconds */
+        long getTime();
+        InputStream open() throws IOException;
+    }
+
+    /** Lists all regular files of this input. Directories are not included. */
+    List<Entry> list() throws IOException;
+
+    static Input open(String path) throws IOException {
+        if (path.endsWith(".jar")) {
+            return new JarInput(path);
+        }
+        return new DirectoryInput(path);
+    }
+}
@@ -0,0 +1,253 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads a jar through its central directory. Entries are read with positional reads, so any
+ * number of threads can read different entries at the same time. Zip64 jars, which have 65535
+ * entries or more or are larger than 4 GB, are read as well.
+ */
+public class JarInput implements Input {
+    static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    static final int END_SIGNATURE = 0x06054b50;
+    static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    static final int LOCAL_HEADER_SIZE = 30;
+    static final int CENTRAL_HEADER_SIZE = 46;
+    static final int END_SIZE = 22;
+    static final int ZIP64_END_SIZE = 56;
+    static final int ZIP64_LOCATOR_SIZE = 20;
+    static final int ZIP64_EXTRA_ID = 0x0001;
+
+    private final String path;
+    private final FileChannel channel;
+
+    public JarInput(String path) throws IOException {
+        this.path = path;
+        channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+    }
+
+    class Entry implements Input.Entry {
+        private final String name;
+        final int flags;
+        final int method;
+        final int dosTime; // DOS date in high 16 bits, DOS time in low 16 bits
+        final int crc;
+        final long compressedSize;
+        final long size;
+        private final long localHeaderOffset;
+        private long dataOffset = -1;
+
+        private Entry(String name, int flags, int method, int dosTime, int crc, long compressedSize, long size, long localHeaderOffset) {
+            this.name = name;
+            this.flags = flags;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public long getTime() {
+            return Util.dosToJavaTime(dosTime);
+        }
+
+        // the local header may have a different extra field than the central header, so it has to be read
+        private long getDataOffset() throws IOException {
+            if (dataOffset < 0) {
+                ByteBuffer buf = read(localHeaderOffset, LOCAL_HEADER_SIZE);
+                if (buf.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+                    throw new IOException(String.format("%s: bad local header for %s", path, name));
+                }
+                dataOffset = localHeaderOffset + LOCAL_HEADER_SIZE + (buf.getShort(26) & 0xffff) + (buf.getShort(28) & 0xffff);
+            }
+            return dataOffset;
+        }
+
+        /** Returns the entry data as stored in the jar, i.e. compressed if {@code method} is DEFLATED. */
+        byte[] readRaw() throws IOException {
+            return read(getDataOffset(), (int) compressedSize).array();
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            InputStream in = new ChannelInputStream(getDataOffset(), compressedSize);
+            switch (method) {
+                case 0: // STORED
+                    return in;
+                case 8: // DEFLATED
+                    Inflater inflater = new Inflater(true);
+                    return new InflaterInputStream(in, inflater, 8192) {
+                        @Override
+                        public void close() throws IOException {
+                            super.close();
+                            inflater.end();
+                        }
+                    };
+                default:
+                    throw new IOException(String.format("%s: unsupported compression method %d for %s", path, method, name));
+            }
+        }
+    }
+
+    private class ChannelInputStream extends InputStream {
+        private long position;
+        private long remaining;
+
+        private ChannelInputStream(long position, long length) {
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)), position);
+            if (n < 0) throw new IOException(path + ": unexpected end of file");
+            position += n;
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(remaining, Integer.MAX_VALUE);
+        }
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                throw new IOException(path + ": unexpected end of file");
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    @Override
+    public List<Input.Entry> list() throws IOException {
+        // find the end of central directory record, which is followed by a comment of at most 65535 bytes
+        long fileSize = channel.size();
+        int tailSize = (int) Math.min(fileSize, END_SIZE + 0xffff);
+        ByteBuffer tail = read(fileSize - tailSize, tailSize);
+        int end = -1;
+        for (int i = tailSize - END_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIGNATURE) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw new IOException(path + ": not a jar file");
+        }
+        long count = tail.getShort(end + 10) & 0xffff;
+        long cdSize = tail.getInt(end + 12) & 0xffffffffL;
+        long cdOffset = tail.getInt(end + 16) & 0xffffffffL;
+        if (count == 0xffff || cdSize == 0xffffffffL || cdOffset == 0xffffffffL) {
+            // the real values are in the zip64 end of central directory record, found through the
+            // locator right before the end record
+            long locatorOffset = fileSize - tailSize + end - ZIP64_LOCATOR_SIZE;
+            ByteBuffer locator = locatorOffset < 0 ? null : read(locatorOffset, ZIP64_LOCATOR_SIZE);
+            if (locator != null && locator.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+                ByteBuffer end64 = read(locator.getLong(8), ZIP64_END_SIZE);
+                if (end64.getInt(0) != ZIP64_END_SIGNATURE) {
+                    throw new IOException(path + ": bad zip64 end of central directory");
+                }
+                count = end64.getLong(32);
+                cdSize = end64.getLong(40);
+                cdOffset = end64.getLong(48);
+            }
+        }
+        if (cdSize > Integer.MAX_VALUE || count > cdSize / CENTRAL_HEADER_SIZE) {
+            throw new IOException(path + ": bad central directory");
+        }
+
+        ByteBuffer cd = read(cdOffset, (int) cdSize);
+        List<Input.Entry> entries = new ArrayList<>((int) count);
+        int p = 0;
+        for (long i = 0; i < count; i++) {
+            if (cd.getInt(p) != CENTRAL_HEADER_SIGNATURE) {
+                throw new IOException(path + ": bad central directory");
+            }
+            int flags = cd.getShort(p + 8) & 0xffff;
+            int method = cd.getShort(p + 10) & 0xffff;
+            int dosTime = cd.getInt(p + 12);
+            int crc = cd.getInt(p + 16);
+            long compressedSize = cd.getInt(p + 20) & 0xffffffffL;
+            long size = cd.getInt(p + 24) & 0xffffffffL;
+            int nameLength = cd.getShort(p + 28) & 0xffff;
+            int extraLength = cd.getShort(p + 30) & 0xffff;
+            int commentLength = cd.getShort(p + 32) & 0xffff;
+            long localHeaderOffset = cd.getInt(p + 42) & 0xffffffffL;
+            String name = new String(cd.array(), p + CENTRAL_HEADER_SIZE, nameLength, StandardCharsets.UTF_8);
+            if (size == 0xffffffffL || compressedSize == 0xffffffffL || localHeaderOffset == 0xffffffffL) {
+                // the zip64 extra field holds the values that did not fit, in this order
+                int x = findExtra(cd, p + CENTRAL_HEADER_SIZE + nameLength, extraLength, ZIP64_EXTRA_ID);
+                if (x < 0) throw new IOException(path + ": no zip64 extra field for " + name);
+                int q = x + 4;
+                if (size == 0xffffffffL) {
+                    size = cd.getLong(q);
+                    q += 8;
+                }
+                if (compressedSize == 0xffffffffL) {
+                    compressedSize = cd.getLong(q);
+                    q += 8;
+                }
+                if (localHeaderOffset == 0xffffffffL) {
+                    localHeaderOffset = cd.getLong(q);
+                }
+            }
+            if (!name.endsWith("/")) {
+                entries.add(new Entry(name, flags, method, dosTime, crc, compressedSize, size, localHeaderOffset));
+            }
+            p += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    // position of the extra field with the given id in the extra fields at [start, start + length), or -1
+    private static int findExtra(ByteBuffer buf, int start, int length, int id) {
+        int x = start;
+        while (x + 4 <= start + length) {
+            int dataSize = buf.getShort(x + 2) & 0xffff;
+            if ((buf.getShort(x) & 0xffff) == id) return x;
+            x += 4 + dataSize;
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
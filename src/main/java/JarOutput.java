@@ -0,0 +1,281 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a jar. Entries are compressed by the threads that write them, or by the workers of a
+ * pipeline through {@link #prepare}, and spilled to a temporary file next to the jar as they
+ * come. {@link #close()} writes them to the jar sorted by name, with the manifest first, so the
+ * jar does not depend on the order in which the threads finish. With a fixed time, all entries
+ * get that time, so the same input gives the same jar byte for byte. A jar with 65535 entries or
+ * more, or larger than 4 GB, is written in zip64 format.
+ */
+public class JarOutput implements Output {
+    private static final int FLAG_UTF8 = 0x800;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    // an entry in the spill file
+    private static class Record {
+        final String name;
+        final byte[] nameBytes;
+        final int method;
+        final int dosTime;
+        final int crc;
+        final long offset; // in the spill file
+        final int compressedSize;
+        final long size;
+
+        Record(String name, byte[] nameBytes, int method, int dosTime, int crc, long offset, int compressedSize, long size) {
+            this.name = name;
+            this.nameBytes = nameBytes;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.offset = offset;
+            this.compressedSize = compressedSize;
+            this.size = size;
+        }
+    }
+
+    /** A compressed file. */
+    private static class Compressed extends Prepared {
+        final int method;
+        final int crc;
+        final byte[] compressed;
+        final long size;
+
+        Compressed(String name, long time, int method, int crc, byte[] compressed, long size) {
+            super(name, time);
+            this.method = method;
+            this.crc = crc;
+            this.compressed = compressed;
+            this.size = size;
+        }
+    }
+
+    private final String path;
+    private final int level; // 0 stores entries
+    private final int fixedDosTime; // -1 to keep the time of each entry
+    private final Path spillPath;
+    private final OutputStream spill;
+    private long spillSize;
+    private final List<Record> records = new ArrayList<>();
+
+    public JarOutput(String path) throws IOException {
+        this(path, Deflater.DEFAULT_COMPRESSION, -1);
+    }
+
+    /**
+     * Creates a jar whose entries are compressed at the given deflate level, or stored if it is 0.
+     * If {@code fixedTime} is not negative, it is the time of all entries in milliseconds.
+     */
+    public JarOutput(String path, int level, long fixedTime) throws IOException {
+        this.path = path;
+        this.level = level;
+        this.fixedDosTime = fixedTime < 0 ? -1 : Util.javaToDosTime(fixedTime);
+        File parent = new File(path).getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("cannot create directory " + parent);
+        }
+        spillPath = Paths.get(path + ".tmp");
+        spill = new BufferedOutputStream(Files.newOutputStream(spillPath), 1 << 16);
+    }
+
+    @Override
+    public Prepared prepare(String name, byte[] data, long time) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        if (level == 0) {
+            return new Compressed(name, time, STORED, (int) crc.getValue(), data, data.length);
+        }
+        Deflater deflater = new Deflater(level, true);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2 + 64);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] buf = new byte[8192];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buf);
+                compressed.write(buf, 0, n);
+            }
+        } finally {
+            deflater.end();
+        }
+        return new Compressed(name, time, DEFLATED, (int) crc.getValue(), compressed.toByteArray(), data.length);
+    }
+
+    @Override
+    public void write(Prepared file) throws IOException {
+        Compressed c = (Compressed) file;
+        writeRaw(c.name, c.method, Util.javaToDosTime(c.time), c.crc, c.compressed, c.size);
+    }
+
+    @Override
+    public void write(String name, byte[] data, long time) throws IOException {
+        write(prepare(name, data, time));
+    }
+
+    @Override
+    public void copy(Input.Entry entry) throws IOException {
+        if (entry instanceof JarInput.Entry) {
+            JarInput.Entry e = (JarInput.Entry) entry;
+            // copy the compressed bytes as they are unless the entry is encrypted
+            if ((e.flags & 1) == 0 && (e.method == STORED || e.method == DEFLATED)) {
+                writeRaw(e.getName(), e.method, e.dosTime, e.crc, e.readRaw(), e.size);
+                return;
+            }
+        }
+        byte[] data;
+        try (InputStream in = entry.open()) {
+            data = Util.readFully(in, entry.getSize());
+        }
+        write(entry.getName(), data, entry.getTime());
+    }
+
+    private synchronized void writeRaw(String name, int method, int dosTime, int crc, byte[] data, long size) throws IOException {
+        if (size >= 0xffffffffL) {
+            throw new IOException(path + ": " + name + " is too large");
+        }
+        spill.write(data);
+        records.add(new Record(name, name.getBytes(StandardCharsets.UTF_8), method, fixedDosTime != -1 ? fixedDosTime : dosTime,
+                crc, spillSize, data.length, size));
+        spillSize += data.length;
+    }
+
+    // the manifest has to come first for JarInputStream
+    private static int rank(String name) {
+        if (name.equals("META-INF/")) return 0;
+        if (name.equalsIgnoreCase("META-INF/MANIFEST.MF")) return 1;
+        return 2;
+    }
+
+    private static byte[] localHeader(Record r) {
+        ByteBuffer local = ByteBuffer.allocate(JarInput.LOCAL_HEADER_SIZE + r.nameBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        local.putInt(JarInput.LOCAL_HEADER_SIGNATURE);
+        local.putShort((short) 20); // version needed to extract
+        local.putShort((short) FLAG_UTF8);
+        local.putShort((short) r.method);
+        local.putInt(r.dosTime);
+        local.putInt(r.crc);
+        local.putInt(r.compressedSize);
+        local.putInt((int) r.size);
+        local.putShort((short) r.nameBytes.length);
+        local.putShort((short) 0); // extra field length
+        local.put(r.nameBytes);
+        return local.array();
+    }
+
+    // an offset of 4 GB or more goes to a zip64 extra field
+    private static byte[] centralHeader(Record r, long position) {
+        boolean zip64 = position >= 0xffffffffL;
+        int extraLength = zip64 ? 12 : 0;
+        ByteBuffer central = ByteBuffer.allocate(JarInput.CENTRAL_HEADER_SIZE + r.nameBytes.length + extraLength)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        central.putInt(JarInput.CENTRAL_HEADER_SIGNATURE);
+        central.putShort((short) (zip64 ? 45 : 20)); // version made by
+        central.putShort((short) (zip64 ? 45 : 20)); // version needed to extract
+        central.putShort((short) FLAG_UTF8);
+        central.putShort((short) r.method);
+        central.putInt(r.dosTime);
+        central.putInt(r.crc);
+        central.putInt(r.compressedSize);
+        central.putInt((int) r.size);
+        central.putShort((short) r.nameBytes.length);
+        central.putShort((short) extraLength);
+        central.putShort((short) 0); // comment length
+        central.putShort((short) 0); // disk number
+        central.putShort((short) 0); // internal attributes
+        central.putInt(0); // external attributes
+        central.putInt(zip64 ? -1 : (int) position);
+        central.put(r.nameBytes);
+        if (zip64) {
+            central.putShort((short) JarInput.ZIP64_EXTRA_ID);
+            central.putShort((short) 8);
+            central.putLong(position);
+        }
+        return central.array();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        spill.close();
+        records.sort(Comparator.comparingInt((Record r) -> rank(r.name)).thenComparing(r -> r.name));
+        long position = 0;
+        long[] offsets = new long[records.size()];
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(path), 1 << 16);
+             FileChannel in = FileChannel.open(spillPath, StandardOpenOption.READ)) {
+            byte[] buf = new byte[1 << 16];
+            for (int i = 0; i < records.size(); i++) {
+                Record r = records.get(i);
+                byte[] local = localHeader(r);
+                out.write(local);
+                offsets[i] = position;
+                position += local.length + r.compressedSize;
+                // copy the compressed data from the spill file
+                ByteBuffer bb = ByteBuffer.wrap(buf);
+                long p = r.offset;
+                long remaining = r.compressedSize;
+                while (remaining > 0) {
+                    bb.clear();
+                    bb.limit((int) Math.min(buf.length, remaining));
+                    int n = in.read(bb, p);
+                    if (n < 0) throw new EOFException(spillPath.toString());
+                    out.write(buf, 0, n);
+                    p += n;
+                    remaining -= n;
+                }
+            }
+            long centralOffset = position;
+            long centralSize = 0;
+            for (int i = 0; i < records.size(); i++) {
+                byte[] central = centralHeader(records.get(i), offsets[i]);
+                out.write(central);
+                centralSize += central.length;
+            }
+            if (records.size() >= 0xffff || centralSize >= 0xffffffffL || centralOffset >= 0xffffffffL) {
+                // the end record below only has the largest values, the real ones are here
+                ByteBuffer end64 = ByteBuffer.allocate(JarInput.ZIP64_END_SIZE + JarInput.ZIP64_LOCATOR_SIZE)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                end64.putInt(JarInput.ZIP64_END_SIGNATURE);
+                end64.putLong(JarInput.ZIP64_END_SIZE - 12); // size of the rest of the record
+                end64.putShort((short) 45); // version made by
+                end64.putShort((short) 45); // version needed to extract
+                end64.putInt(0); // number of this disk
+                end64.putInt(0); // disk where central directory starts
+                end64.putLong(records.size());
+                end64.putLong(records.size());
+                end64.putLong(centralSize);
+                end64.putLong(centralOffset);
+                end64.putInt(JarInput.ZIP64_LOCATOR_SIGNATURE);
+                end64.putInt(0); // disk where the zip64 end record is
+                end64.putLong(centralOffset + centralSize);
+                end64.putInt(1); // number of disks
+                out.write(end64.array());
+            }
+            ByteBuffer end = ByteBuffer.allocate(JarInput.END_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            end.putInt(JarInput.END_SIGNATURE);
+            end.putShort((short) 0); // number of this disk
+            end.putShort((short) 0); // disk where central directory starts
+            end.putShort((short) Math.min(records.size(), 0xffff));
+            end.putShort((short) Math.min(records.size(), 0xffff));
+            end.putInt((int) Math.min(centralSize, 0xffffffffL));
+            end.putInt((int) Math.min(centralOffset, 0xffffffffL));
+            end.putShort((short) 0); // comment length
+            out.write(end.array());
+        } finally {
+            Files.deleteIfExists(spillPath);
+        }
+    }
+}
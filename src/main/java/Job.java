@@ -0,0 +1,472 @@
+import org.apache.bcel.classfile.ClassParser;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.commons.cli.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One deobfuscation run: remaps one input to one output. Runs on a shared {@link WorkPool} and
+ * gets its mapping from a {@link MappingStore}, so a daemon can run many jobs, also at the same
+ * time, in one JVM.
+ */
+public class Job {
+    private static final long DEFAULT_BUDGET = 64 << 20;
+
+    final List<String> mappingFilePaths; // a chain, each mapping maps the names the one before maps to
+    final List<String> formats; // one for each mapping file
+    final String inputPath;
+    final String outputPath;
+    final boolean copyNonClassFiles;
+    final boolean linkNonClassFiles; // hard link instead of copying where possible
+    final boolean pipelined;
+    final long budget; // bytes of class files in flight in pipeline mode
+    final boolean useCache;
+    final boolean direct;
+    final boolean incremental;
+    final int level; // deflate level of an output jar, 0 to store
+    final long fixedTime; // time of all output jar entries in milliseconds, or -1
+    final List<String> classPath; // library jars and directories, or ClassPath.JRT
+
+    Job(List<String> mappingFilePaths, List<String> formats, String inputPath, String outputPath, boolean copyNonClassFiles,
+        boolean linkNonClassFiles, boolean pipelined, long budget, boolean useCache, boolean direct, boolean incremental, int level, long fixedTime,
+        List<String> classPath) {
+        this.mappingFilePaths = mappingFilePaths;
+        this.formats = formats;
+        this.inputPath = inputPath;
+        this.outputPath = outputPath;
+        this.copyNonClassFiles = copyNonClassFiles;
+        this.linkNonClassFiles = linkNonClassFiles;
+        this.pipelined = pipelined;
+        this.budget = budget;
+        this.useCache = useCache;
+        this.direct = direct;
+        this.incremental = incremental;
+        this.level = level;
+        this.fixedTime = fixedTime;
+        this.classPath = classPath;
+    }
+
+    /** Adds the options that describe a job. */
+    static void addOptions(Options options) {
+        options.addRequiredOption("m", null, true, "obfuscation mapping file; given more than once, the mappings are "
+                + "applied one after another, e.g. obfuscated to intermediary to named");
+        options.addRequiredOption("i", null, true, "input directory or jar");
+        options.addRequiredOption("o", null, true, "output directory or jar");
+        options.addOption("s", false, "srg format, same as -f srg");
+        options.addOption("f", null, true, "mapping format: proguard (default), srg, tsrg, tiny or tiny:<from>:<to>; "
+                + "once for all mapping files or once for each");
+        options.addOption("c", false, "copy non-class files");
+        options.addOption(null, "link", false, "with -c, hard link non-class files of an input directory into an output "
+                + "directory instead of copying them");
+        options.addOption("p", false, "stream classes through a pipeline instead of loading all of them first");
+        options.addOption("b", null, true, "size of class files in flight in pipeline mode, in megabytes (default: 64)");
+        options.addOption(null, "no-cache", false, "do not read or write the binary mapping and class path caches");
+        options.addOption("e", null, true, "remapping engine: bcel (default) or direct, which rewrites class files without BCEL");
+        options.addOption("u", "incremental", false, "only remap classes that changed since the last run with the same output");
+        options.addOption(Option.builder().longOpt("compression").hasArg().argName("level")
+                .desc("deflate level of an output jar from 0 (store) to 9 (default: 6)").build());
+        options.addOption(Option.builder().longOpt("timestamp").hasArg().argName("seconds")
+                .desc("time of all output jar entries in seconds since 1970 (default: SOURCE_DATE_EPOCH if set, "
+                        + "otherwise the time of each input file)").build());
+        options.addOption(Option.builder().longOpt("classpath").hasArg().argName("paths")
+                .desc("library jars and directories, and jrt for the JDK, separated by '" + File.pathSeparator
+                        + "', to look up classes that are not in the input").build());
+    }
+
+    static Job parse(CommandLine cl) throws ParseException {
+        String engine = cl.getOptionValue('e', "bcel");
+        if (!engine.equals("bcel") && !engine.equals("direct")) {
+            throw new ParseException("unknown engine: " + engine);
+        }
+        long budget = cl.hasOption('b') ? Long.parseLong(cl.getOptionValue('b')) << 20 : DEFAULT_BUDGET;
+        if (budget <= 0) {
+            throw new ParseException("pipeline budget must be positive");
+        }
+        int level = Integer.parseInt(cl.getOptionValue("compression", "6"));
+        if (level < 0 || level > 9) {
+            throw new ParseException("compression level must be between 0 and 9");
+        }
+        String timestamp = cl.getOptionValue("timestamp", System.getenv("SOURCE_DATE_EPOCH"));
+        long fixedTime = timestamp != null ? Long.parseLong(timestamp) * 1000 : -1;
+        if (timestamp != null && fixedTime < 0) {
+            throw new ParseException("timestamp must not be negative");
+        }
+        List<String> mappingFilePaths = Arrays.asList(cl.getOptionValues('m'));
+        List<String> formats = cl.hasOption('s') ? Collections.singletonList("srg")
+                : cl.hasOption('f') ? Arrays.asList(cl.getOptionValues('f')) : Collections.singletonList("proguard");
+        if (formats.size() == 1) {
+            formats = Collections.nCopies(mappingFilePaths.size(), formats.get(0));
+        } else if (formats.size() != mappingFilePaths.size()) {
+            throw new ParseException("give one format for all mapping files or one for each");
+        }
+        if (cl.hasOption("link") && !cl.hasOption('c')) {
+            throw new ParseException("--link needs -c");
+        }
+        return new Job(mappingFilePaths, formats,
+                cl.getOptionValue('i'), cl.getOptionValue('o'), cl.hasOption('c'), cl.hasOption("link"), cl.hasOption('p'), budget,
+                !cl.hasOption("no-cache"), engine.equals("direct"), cl.hasOption('u'), level, fixedTime,
+                cl.hasOption("classpath") ? Arrays.asList(cl.getOptionValue("classpath").split(File.pathSeparator))
+                        : Collections.emptyList());
+    }
+
+    /** Returns the options of this job with absolute paths, for a daemon with another working directory. */
+    List<String> toArgs() {
+        List<String> args = new ArrayList<>();
+        for (int i = 0; i < mappingFilePaths.size(); i++) {
+            args.addAll(Arrays.asList("-m", new File(mappingFilePaths.get(i)).getAbsolutePath(), "-f", formats.get(i)));
+        }
+        args.addAll(Arrays.asList(
+                "-i", new File(inputPath).getAbsolutePath(),
+                "-o", new File(outputPath).getAbsolutePath(),
+                "-b", Long.toString(budget >> 20),
+                "-e", direct ? "direct" : "bcel",
+                "--compression", Integer.toString(level)));
+        if (fixedTime >= 0) {
+            args.add("--timestamp");
+            args.add(Long.toString(fixedTime / 1000));
+        }
+        if (!classPath.isEmpty()) {
+            List<String> paths = new ArrayList<>();
+            for (String element : classPath) {
+                paths.add(element.equals(ClassPath.JRT) ? element : new File(element).getAbsolutePath());
+            }
+            args.add("--classpath");
+            args.add(String.join(File.pathSeparator, paths));
+        }
+        if (copyNonClassFiles) args.add("-c");
+        if (linkNonClassFiles) args.add("--link");
+        if (pipelined) args.add("-p");
+        if (!useCache) args.add("--no-cache");
+        if (incremental) args.add("-u");
+        return args;
+    }
+
+    // resolves member name conflicts and builds the read-only member index from the headers of
+    // all input classes
+    static MemberResolver buildIndex(WorkPool pool, List<ClassHeader> headers, Map<String, String[]> hier,
+                                     MappingIndex mappings) throws IOException, InterruptedException {
+        System.err.println("indexing mappings...");
+        ConflictResolver.run(pool, headers, mappings.obfuscatedMappings, mappings.signatures);
+        return new MemberResolver(mappings.obfuscatedMappings, hier, mappings.symbols, pool);
+    }
+
+    // the headers of the input classes followed by those of the mapped library classes, whose
+    // members can conflict too; adds the library classes the input needs to the hierarchy
+    private static List<ClassHeader> withLibraries(ClassPath libraries, WorkPool pool, ClassHeader[] headers,
+                                                   Map<String, String[]> hier, MappingIndex mappings)
+            throws IOException, InterruptedException {
+        List<ClassHeader> allHeaders = new ArrayList<>(Arrays.asList(headers));
+        if (libraries != null) {
+            allHeaders.addAll(libraries.resolve(pool, hier, mappings.obfuscatedMappings.keySet()));
+        }
+        return allHeaders;
+    }
+
+    // fingerprints the classes to remap for the class cache of a batch; the index must be built
+    private static String[] fingerprint(WorkPool pool, String engine, List<Input.Entry> entries, List<ClassHeader> allHeaders,
+                                        ClassHeader[] headers, byte[][] inputHashes, Map<String, String[]> hier,
+                                        Map<String, Remapper.ClassMapping> obfuscatedMappings) throws IOException, InterruptedException {
+        Map<String, ClassHeader> headersByName = new HashMap<>();
+        for (ClassHeader header : allHeaders) {
+            headersByName.put(header.name, header);
+        }
+        // the cache lives in one JVM, but the engines may produce different bytes for the same class
+        ClassFingerprinter fingerprinter = new ClassFingerprinter(obfuscatedMappings, hier, headersByName,
+                engine.getBytes(StandardCharsets.UTF_8));
+        List<Integer> indices = new ArrayList<>(headers.length);
+        for (int i = 0; i < headers.length; i++) {
+            indices.add(i);
+        }
+        String[] fingerprints = new String[headers.length];
+        pool.run("fingerprint", indices, i -> entries.get(i).getSize(),
+                i -> fingerprints[i] = Util.toHex(fingerprinter.fingerprint(headers[i], inputHashes[i]))).print();
+        return fingerprints;
+    }
+
+    /**
+     * Returns true if remapping would not change a class, so it can be copied as it is: the class
+     * is not renamed, refers to no renamed class, has no snowman local variables to rename, and
+     * neither it nor any class whose members it refers to has mapped members, declared or
+     * inherited. The header must have been read with its members.
+     */
+    static boolean isUnaffected(ClassHeader header, Map<String, String> classNameMap, MemberResolver resolver) {
+        if (header == null || header.hasSnowman || classNameMap.containsKey(header.name)
+                || resolver.hasMappedMembers(header.name)) return false;
+        for (String className : header.referencedClasses) {
+            if (classNameMap.containsKey(className)) return false;
+        }
+        for (String owner : header.memberOwners) {
+            if (resolver.hasMappedMembers(owner)) return false;
+        }
+        return true;
+    }
+
+    /** A class remapped by {@link #remapOne}. */
+    static class Remapped {
+        final String className; // original name
+        final byte[] data;
+        final long endNanos; // System.nanoTime() when remapping ended
+
+        Remapped(String className, byte[] data, long endNanos) {
+            this.className = className;
+            this.data = data;
+            this.endNanos = endNanos;
+        }
+    }
+
+    /**
+     * Remaps one class file with ClassRewriter if {@code direct} is set, with BCEL otherwise, and
+     * records it in the report. {@code fileName} is only used in error messages.
+     */
+    static Remapped remapOne(byte[] classFile, String fileName, boolean direct, MappingIndex mappings,
+                             MemberResolver resolver, RunReport report) throws IOException {
+        Object event = report.classStarted();
+        long t0 = System.nanoTime();
+        String className;
+        byte[] data;
+        RunReport.ClassCounters counters;
+        if (direct) {
+            ClassRewriter rewriter = new ClassRewriter(mappings.signatures, mappings.inverseClassNameMap, resolver, classFile);
+            rewriter.remap();
+            className = rewriter.getClassName();
+            data = rewriter.dump();
+            counters = rewriter.getCounters();
+        } else {
+            JavaClass cls = new ClassParser(new ByteArrayInputStream(classFile), fileName).parse();
+            Remapper remapper = new Remapper(mappings.obfuscatedMappings, mappings.signatures, mappings.inverseClassNameMap,
+                    resolver, cls);
+            remapper.remap();
+            className = remapper.getClassName();
+            data = remapper.dump();
+            counters = remapper.getCounters();
+        }
+        long t1 = System.nanoTime();
+        report.classDone(event, className, classFile.length, data.length, t1 - t0, counters);
+        return new Remapped(className, data, t1);
+    }
+
+    private static void write(Output output, String name, byte[] data, long time) {
+        try {
+            output.write(name, data, time);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    // writes a class remapped by an earlier job, returns false if there is none
+    private static boolean reuse(ClassCache cache, String[] fingerprints, int i, Input.Entry entry, Output output,
+                                 RunReport report) {
+        if (fingerprints == null) return false;
+        ClassCache.Entry hit = cache.get(fingerprints[i]);
+        if (hit == null) return false;
+        try {
+            output.write(hit.className + ".class", hit.data, entry.getTime());
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+        report.classReused(entry.getSize());
+        return true;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException | RuntimeException e) {
+            // the job has already failed
+        }
+    }
+
+    /** Runs the job and returns its report. */
+    public RunReport run(WorkPool workers, MappingStore store) throws IOException, InvalidInputException, InterruptedException {
+        return run(workers, store, null);
+    }
+
+    /**
+     * Runs the job and returns its report. Classes found in {@code cache} are not remapped again
+     * and the classes remapped by this job are added to it, unless {@code cache} is null or the
+     * job runs in pipeline mode.
+     */
+    public RunReport run(WorkPool workers, MappingStore store, ClassCache cache)
+            throws IOException, InvalidInputException, InterruptedException {
+        RunReport report = new RunReport();
+        report.put("mapping", String.join(",", mappingFilePaths));
+        report.put("format", String.join(",", formats));
+        report.put("input", inputPath);
+        report.put("output", outputPath);
+        report.put("engine", direct ? "direct" : "bcel");
+        report.put("pipelined", pipelined);
+        report.put("incremental", incremental);
+        report.put("threads", workers.getThreadCount());
+        WorkPool pool = workers.withReport(report);
+        MappingIndex mappings = store.get(mappingFilePaths, formats, useCache, workers, report);
+        Map<String, Remapper.ClassMapping> obfuscatedMappings = mappings.obfuscatedMappings;
+        SignatureMapper signatures = mappings.signatures;
+        long signatureHits = signatures.getHits(), signatureMisses = signatures.getMisses();
+        ClassPath libraries = classPath.isEmpty() ? null
+                : new ClassPath(classPath, useCache ? ClassPath.getDefaultCacheDir() : null, report);
+
+        // build a list of classes to process and start copying non-class files to output
+        System.err.println("scanning input...");
+        long scanStart = System.currentTimeMillis();
+        RunReport.Stage scan = report.begin("scan");
+        Input input = Input.open(inputPath);
+        List<Input.Entry> classEntries = new ArrayList<>();
+        List<Input.Entry> otherEntries = new ArrayList<>();
+        long classBytes = 0;
+        IncrementalBuild build;
+        Output output;
+        try {
+            for (Input.Entry entry : input.list()) {
+                if (entry.getName().endsWith(".class")) {
+                    classEntries.add(entry);
+                    classBytes += entry.getSize();
+                } else /* non-class file */ {
+                    otherEntries.add(entry);
+                }
+            }
+            // opened only once the input could be read, so a failed scan leaves no empty output behind
+            // for a later -u run to take for a previous one
+            build = incremental ? new IncrementalBuild(outputPath) : null;
+            output = build != null ? build.openOutput(level, fixedTime) : Output.open(outputPath, level, fixedTime);
+        } catch (IOException | RuntimeException e) {
+            input.close();
+            throw e;
+        }
+        scan.end(classEntries.size() + otherEntries.size(), classBytes);
+        ResourceCopier copier = null;
+        boolean done = false;
+        try {
+            if (copyNonClassFiles) {
+                // copied while the classes are remapped
+                copier = new ResourceCopier(output, linkNonClassFiles, report);
+                copier.start(otherEntries);
+            }
+            System.err.printf("found %d classes in %dms\n", classEntries.size(), System.currentTimeMillis() - scanStart);
+            // in incremental mode, the hierarchy is built while fingerprinting all classes
+            Map<String, String[]> hier = new ConcurrentHashMap<>();
+            List<Input.Entry> entries = build != null
+                    ? build.selectChanged(classEntries, pool, hier, obfuscatedMappings, signatures, libraries) : classEntries;
+            List<Integer> classIndices = new ArrayList<>(entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                classIndices.add(i);
+            }
+            ClassHeader[] headers = new ClassHeader[entries.size()];
+            byte[][] inputHashes = cache != null && !pipelined ? new byte[entries.size()][] : null;
+
+            if (pipelined) {
+                if (build == null) {
+                    // only read class headers here, the classes are parsed again in the pipeline
+                    System.err.println("building class hierarchy...");
+                    pool.run("hierarchy", classIndices, i -> entries.get(i).getSize(), i -> {
+                        try (InputStream in = entries.get(i).open()) {
+                            headers[i] = ClassHeader.readWithMembers(in);
+                        }
+                        headers[i].addTo(hier);
+                    }).print();
+                }
+                List<ClassHeader> allHeaders = build != null ? build.getHeaders() : withLibraries(libraries, pool, headers, hier, mappings);
+                MemberResolver resolver = buildIndex(pool, allHeaders, hier, mappings);
+                // in incremental mode the headers of changed classes are not at hand, all of them are remapped
+                String[] passthrough = null;
+                if (build == null) {
+                    passthrough = new String[entries.size()];
+                    for (int i = 0; i < entries.size(); i++) {
+                        if (isUnaffected(headers[i], mappings.classNameMap, resolver)) passthrough[i] = headers[i].name + ".class";
+                    }
+                }
+
+                System.err.println("deobfuscating...");
+                long startTime = System.currentTimeMillis();
+                RunReport.Stage stage = report.begin("pipeline");
+                stage.end(new Pipeline(workers, budget, mappings, resolver, output, direct, passthrough, report)
+                        .run(entries));
+                long elapsed = System.currentTimeMillis() - startTime;
+                System.err.printf("done in %dms\n", elapsed);
+            } else {
+                // read classes and build class hierarchy from their headers; BCEL only parses the
+                // classes that are remapped
+                System.err.println("reading classes...");
+                byte[][] classFiles = new byte[entries.size()][];
+                pool.run("read", classIndices, i -> entries.get(i).getSize(), i -> {
+                    Input.Entry entry = entries.get(i);
+                    try (InputStream in = entry.open()) {
+                        classFiles[i] = Util.readFully(in, entry.getSize());
+                    }
+                    if (inputHashes != null) inputHashes[i] = ClassFingerprinter.newDigest().digest(classFiles[i]);
+                    headers[i] = ClassHeader.readWithMembers(new ByteArrayInputStream(classFiles[i]));
+                    headers[i].addTo(hier);
+                }).print();
+                List<ClassHeader> allHeaders = build != null ? build.getHeaders() : withLibraries(libraries, pool, headers, hier, mappings);
+                MemberResolver resolver = buildIndex(pool, allHeaders, hier, mappings);
+                String[] fingerprints = inputHashes != null
+                        ? fingerprint(pool, direct ? "direct" : "bcel", entries, allHeaders, headers, inputHashes, hier, obfuscatedMappings) : null;
+
+                System.err.println("deobfuscating...");
+                long startTime = System.currentTimeMillis();
+                WorkPool.Stats stats = pool.run("remap", classIndices, i -> entries.get(i).getSize(), i -> {
+                    Input.Entry entry = entries.get(i);
+                    if (isUnaffected(headers[i], mappings.classNameMap, resolver)) {
+                        long t0 = System.nanoTime();
+                        report.classPassedThrough(classFiles[i].length);
+                        write(output, headers[i].name + ".class", classFiles[i], entry.getTime());
+                        report.classWritten(System.nanoTime() - t0);
+                        classFiles[i] = null;
+                        return;
+                    }
+                    if (reuse(cache, fingerprints, i, entry, output, report)) {
+                        classFiles[i] = null;
+                        return;
+                    }
+                    Remapped remapped = remapOne(classFiles[i], entry.getName(), direct, mappings, resolver, report);
+                    if (fingerprints != null) cache.put(fingerprints[i], remapped.className, remapped.data);
+                    write(output, remapped.className + ".class", remapped.data, entry.getTime());
+                    report.classWritten(System.nanoTime() - remapped.endNanos);
+                    classFiles[i] = null;
+                });
+                long elapsed = System.currentTimeMillis() - startTime;
+                System.err.printf("done in %dms\n", elapsed);
+                stats.print();
+            }
+            signatures.printStats();
+            if (copier != null) {
+                copier.finish();
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                // leave nothing open in a daemon after a failed job
+                if (copier != null) copier.abandon();
+                closeQuietly(output);
+                closeQuietly(input);
+            }
+        }
+        RunReport.Stage close = report.begin("close");
+        output.close();
+        input.close();
+        if (build != null) {
+            build.finish();
+        }
+        close.end(0, 0);
+        Map<String, Object> signatureCache = new LinkedHashMap<>();
+        long hits = signatures.getHits() - signatureHits, misses = signatures.getMisses() - signatureMisses;
+        signatureCache.put("hits", hits);
+        signatureCache.put("misses", misses);
+        signatureCache.put("hitRate", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+        signatureCache.put("entries", signatures.getCacheEntries());
+        report.put("signatureCache", signatureCache);
+        if (build != null) {
+            report.put("unchangedClasses", build.getUnchangedCount());
+        }
+        if (libraries != null) {
+            report.put("classPathCacheHits", libraries.getCacheHits());
+        }
+        return report;
+    }
+}
@@ -0,0 +1,288 @@
+import org.apache.commons.io.IOUtils;
+
+import java.io.*;
+import java.lang.instrument.ClassFileTransformer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.ProtectionDomain;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Remaps classes while the JVM loads them. The JVM has fixed the name of a class by the time it
+ * is transformed, so classes keep their obfuscated names and only fields and methods are renamed
+ * (see {@link ClassRewriter#remapMembers}). Stack traces, profilers and debuggers then show the
+ * original member names, and the original class in the source file name.
+ *
+ * Nothing is loaded until a class has to be remapped. The remapped bytes are kept in a disk cache
+ * keyed by the SHA-1 of the class file, in a directory keyed by the mappings, the game and the
+ * libraries, so on later starts classes are read from the cache and the mappings are not loaded
+ * at all as long as every class is found. Classes that only turn up at runtime, such as those of
+ * mods, are added to the member index together with their ancestors, which are read through the
+ * class loader. How a class is remapped also depends on such classes among its ancestors and
+ * those of the classes whose members it uses, so a cache entry lists them with the SHA-1 of each,
+ * and is only used while the class loader still finds the same class files.
+ */
+public class LoadTimeRemapper implements ClassFileTransformer {
+    private static final int VERSION = 2;
+    private static final byte[] UNCHANGED = new byte[0];
+    private static final String[] NO_PARENTS = new String[0];
+    private static final String[] PLATFORM_PACKAGES = { "java/", "javax/", "jdk/", "sun/", "com/sun/" };
+
+    private final List<String> mappingFilePaths;
+    private final List<String> formats;
+    private final String gamePath;
+    private final List<String> classPath;
+    private final Path cacheDir; // null to not cache anything
+    private final URL agentLocation; // classes of the agent itself are not remapped
+    private final ThreadLocal<Boolean> transforming = new ThreadLocal<>();
+    // the class files each class loader finds, by class name, so each is read and hashed once
+    private final Map<ClassLoader, Map<String, ClassFile>> classFiles = Collections.synchronizedMap(new WeakHashMap<>());
+    private volatile MappingIndex mappings; // loaded on first use
+    private volatile MemberResolver resolver;
+
+    private final AtomicInteger remapped = new AtomicInteger();
+    private final AtomicInteger unchanged = new AtomicInteger();
+    private final AtomicInteger cacheHits = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    // a class file found through a class loader
+    private static class ClassFile {
+        final String hash; // SHA-1, empty if the loader does not find the class
+        final String[] parents;
+
+        ClassFile(String hash, String[] parents) {
+            this.hash = hash;
+            this.parents = parents;
+        }
+    }
+
+    /** {@code cacheDir} may be null to remap every class on every start. */
+    public LoadTimeRemapper(List<String> mappingFilePaths, List<String> formats, String gamePath, List<String> classPath,
+                            Path cacheDir, boolean verbose) throws IOException {
+        this.mappingFilePaths = mappingFilePaths;
+        this.formats = formats;
+        this.gamePath = gamePath;
+        this.classPath = classPath;
+        this.cacheDir = cacheDir == null ? null : cacheDir.resolve(contextKey());
+        CodeSource codeSource = LoadTimeRemapper.class.getProtectionDomain().getCodeSource();
+        agentLocation = codeSource == null ? null : codeSource.getLocation();
+        if (verbose) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> System.err.printf(
+                    "mc-deobf agent: %d classes remapped, %d from the cache, %d unchanged, %d failed\n",
+                    remapped.get(), cacheHits.get(), unchanged.get(), failed.get())));
+        }
+    }
+
+    // identifies everything besides the class itself that the remapped bytes depend on
+    private String contextKey() throws IOException {
+        MessageDigest md = sha1();
+        md.update(("load-time " + VERSION + "\n").getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < mappingFilePaths.size(); i++) {
+            md.update(MappingCache.hash(mappingFilePaths.get(i)));
+            md.update(formats.get(i).getBytes(StandardCharsets.UTF_8));
+        }
+        md.update(MappingCache.hash(gamePath));
+        for (String element : classPath) {
+            // a class directory is only identified by its path
+            md.update(element.endsWith(".jar") ? MappingCache.hash(element) : element.getBytes(StandardCharsets.UTF_8));
+        }
+        return Util.toHex(md.digest());
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private boolean isExcluded(ClassLoader loader, String className, ProtectionDomain protectionDomain) {
+        // the bootstrap loader only loads the platform
+        if (loader == null || className == null || isPlatformClass(className)) return true;
+        // the workers that build the index load classes of the agent, which must not wait for it
+        CodeSource codeSource = protectionDomain == null ? null : protectionDomain.getCodeSource();
+        return agentLocation != null && codeSource != null && agentLocation.equals(codeSource.getLocation());
+    }
+
+    @Override
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                            ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        // classes loaded by the transformer itself are left alone
+        if (transforming.get() != null || isExcluded(loader, className, protectionDomain)) return null;
+        transforming.set(Boolean.TRUE);
+        try {
+            byte[] data = remap(loader, classfileBuffer);
+            return data == UNCHANGED ? null : data;
+        } catch (IOException | InvalidInputException | InterruptedException | RuntimeException e) {
+            failed.incrementAndGet();
+            System.err.printf("mc-deobf agent: %s: %s\n", className, e.getMessage() != null ? e.getMessage() : e.toString());
+            if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            transforming.remove();
+        }
+    }
+
+    private byte[] remap(ClassLoader loader, byte[] classFile)
+            throws IOException, InvalidInputException, InterruptedException {
+        Path cachePath = null;
+        if (cacheDir != null) {
+            cachePath = cacheDir.resolve(Util.toHex(sha1().digest(classFile)));
+            byte[] data = readCache(cachePath, loader);
+            if (data != null) {
+                cacheHits.incrementAndGet();
+                return data;
+            }
+        }
+
+        load();
+        ClassHeader header = ClassHeader.readWithMembers(new ByteArrayInputStream(classFile));
+        Set<String> visiting = new HashSet<>();
+        for (String parent : header.getParents()) {
+            addClass(loader, parent, visiting);
+        }
+        resolver.addClass(header.name, header.getParents());
+        for (String owner : header.memberOwners) {
+            addClass(loader, owner, visiting);
+        }
+        byte[] data = UNCHANGED;
+        if (!Job.isUnaffected(header, mappings.classNameMap, resolver)) {
+            ClassRewriter rewriter = new ClassRewriter(mappings.signatures, mappings.inverseClassNameMap, resolver, classFile);
+            rewriter.remapMembers();
+            byte[] remappedData = rewriter.dump();
+            if (!Arrays.equals(remappedData, classFile)) data = remappedData;
+        }
+        (data == UNCHANGED ? unchanged : remapped).incrementAndGet();
+
+        if (cachePath != null) {
+            writeCache(cachePath, dependencies(loader, header), data);
+        }
+        return data;
+    }
+
+    // the classes outside the index that the remapping of a class depends on, with the hash of
+    // each: its ancestors and those of the classes whose members it uses, up to the first indexed
+    // class on each line
+    private Map<String, String> dependencies(ClassLoader loader, ClassHeader header) throws IOException {
+        Map<String, String> dependencies = new TreeMap<>();
+        Deque<String> queue = new ArrayDeque<>(Arrays.asList(header.getParents()));
+        queue.addAll(header.memberOwners);
+        while (!queue.isEmpty()) {
+            String className = queue.poll();
+            if (className.startsWith("[") || isPlatformClass(className) || resolver.isIndexed(className)
+                    || dependencies.containsKey(className)) continue;
+            ClassFile classFile = findClass(loader, className);
+            dependencies.put(className, classFile.hash);
+            queue.addAll(Arrays.asList(classFile.parents));
+        }
+        return dependencies;
+    }
+
+    // a cache entry: the number of dependencies, the name and hash of each, then the remapped
+    // class file, which is empty if the class is left as it is
+    private void writeCache(Path cachePath, Map<String, String> dependencies, byte[] data) throws IOException {
+        Files.createDirectories(cacheDir);
+        // several JVMs can share the cache, so an entry appears whole or not at all
+        Path tmp = Files.createTempFile(cacheDir, "class", ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(dependencies.size());
+                for (Map.Entry<String, String> dependency : dependencies.entrySet()) {
+                    out.writeUTF(dependency.getKey());
+                    out.writeUTF(dependency.getValue());
+                }
+                out.write(data);
+            }
+            Files.move(tmp, cachePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // returns the cached class file, or null if there is none or a dependency has changed
+    private byte[] readCache(Path cachePath, ClassLoader loader) throws IOException {
+        byte[] entry;
+        try {
+            entry = Files.readAllBytes(cachePath);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(entry));
+        try {
+            for (int i = 0, n = in.readInt(); i < n; i++) {
+                String className = in.readUTF();
+                if (!findClass(loader, className).hash.equals(in.readUTF())) return null;
+            }
+        } catch (EOFException e) {
+            return null; // written by an older version
+        }
+        byte[] data = new byte[in.available()];
+        in.readFully(data);
+        return data.length == 0 ? UNCHANGED : data;
+    }
+
+    // loads the mappings and builds the member index of the game, once
+    private synchronized void load() throws IOException, InvalidInputException, InterruptedException {
+        if (resolver != null) return;
+        System.err.println("mc-deobf agent: indexing the game");
+        RunReport report = new RunReport();
+        boolean useCache = cacheDir != null;
+        List<String> elements = new ArrayList<>();
+        elements.add(gamePath);
+        elements.addAll(classPath);
+        ClassPath libraries = new ClassPath(elements, useCache ? ClassPath.getDefaultCacheDir() : null, report);
+        try (WorkPool pool = new WorkPool(Runtime.getRuntime().availableProcessors())) {
+            MappingIndex mappings = MappingIndex.load(mappingFilePaths, formats, useCache, pool, report);
+            Map<String, String[]> hier = new ConcurrentHashMap<>();
+            List<ClassHeader> headers = libraries.resolve(pool, hier, mappings.obfuscatedMappings.keySet());
+            this.mappings = mappings;
+            resolver = Job.buildIndex(pool, headers, hier, mappings);
+        }
+    }
+
+    // adds a class that is not in the index and its ancestors, reading them through the loader;
+    // a class that cannot be found is taken to be a root
+    private void addClass(ClassLoader loader, String className, Set<String> visiting) throws IOException {
+        if (className.startsWith("[") || resolver.knows(className) || !visiting.add(className)) return;
+        String[] parents = findClass(loader, className).parents;
+        for (String parent : parents) {
+            addClass(loader, parent, visiting);
+        }
+        resolver.addClass(className, parents);
+    }
+
+    private static boolean isPlatformClass(String className) {
+        for (String prefix : PLATFORM_PACKAGES) {
+            if (className.startsWith(prefix)) return true;
+        }
+        return false;
+    }
+
+    // reads and hashes a class file through a loader, once for each loader
+    private ClassFile findClass(ClassLoader loader, String className) throws IOException {
+        Map<String, ClassFile> found = classFiles.computeIfAbsent(loader, l -> new ConcurrentHashMap<>());
+        ClassFile classFile = found.get(className);
+        if (classFile != null) return classFile;
+        try (InputStream in = loader.getResourceAsStream(className + ".class")) {
+            if (in == null) {
+                classFile = new ClassFile("", NO_PARENTS);
+            } else {
+                byte[] data = IOUtils.toByteArray(in);
+                classFile = new ClassFile(Util.toHex(sha1().digest(data)),
+                        ClassHeader.read(new ByteArrayInputStream(data)).getParents());
+            }
+        }
+        found.putIfAbsent(className, classFile);
+        return classFile;
+    }
+}
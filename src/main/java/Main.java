@@ -1,145 +1,118 @@
-import org.apache.bcel.classfile.*;
 import org.apache.commons.cli.*;
-import org.apache.commons.io.FileUtils;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.*;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.util.*;
-import java.util.concurrent.CountDownLatch;
+import java.util.Arrays;
+import java.util.List;
 
 public class Main {
-    private static Map<String, Remapper.ClassMapping> convertMappings(List<Mapping.ClassMapping> mappings) {
-        Map<String, Remapper.ClassMapping> result = new HashMap<>();
-        for (Mapping.ClassMapping mapping : mappings) {
-            result.put(mapping.obfuscatedName.replace('.', '/'), new Remapper.ClassMapping(mapping));
+    private static int getThreadCount(CommandLine cl) throws ParseException {
+        int nWorker = cl.hasOption('t') ? Integer.parseInt(cl.getOptionValue('t')) : Runtime.getRuntime().availableProcessors();
+        if (nWorker < 1) {
+            throw new ParseException("number of worker threads must be positive");
         }
-        return result;
+        return nWorker;
+    }
+
+    private static int getPort(CommandLine cl, String option) throws ParseException {
+        int port = Integer.parseInt(cl.getOptionValue(option));
+        if (port < 0 || port > 0xffff) {
+            throw new ParseException("invalid port: " + port);
+        }
+        return port;
     }
 
     public static void main(String[] args) {
         Options options = new Options();
-        options.addRequiredOption("m", null, true, "obfuscation mapping file");
-        options.addRequiredOption("i", null, true, "input directory");
-        options.addRequiredOption("o", null, true, "output directory");
-        options.addOption("s", false, "srg format");
-        options.addOption("c", false, "copy non-class files");
+        options.addOption("t", null, true, "number of worker threads (default: number of processors)");
+        Option serve = Option.builder().longOpt("serve").hasArg().argName("port")
+                .desc("run as a daemon that accepts jobs on the given loopback port").build();
+        Option reportOption = Option.builder().longOpt("report").hasArg().argName("file")
+                .desc("write timings, throughput and cache statistics of the run to a JSON file").build();
+
+        Option batch = Option.builder().longOpt("batch").hasArg().argName("file")
+                .desc("run the jobs listed in a file, one line of job options each").build();
+        Option connect = Option.builder().longOpt("connect").hasArg().argName("port")
+                .desc("run the job in the daemon listening on the given loopback port").build();
+        Option modpack = Option.builder().longOpt("modpack").hasArg().argName("dir")
+                .desc("remap every jar in the directory against the game given with -i, into the output "
+                        + "directory given with -o").build();
 
         CommandLineParser clp = new DefaultParser();
         try {
-            CommandLine cl = clp.parse(options, args);
-            String mappingFilePath = cl.getOptionValue('m');
-            String inputDir = cl.getOptionValue('i');
-            String tmp = cl.getOptionValue('o');
-            String outDirRoot; // either "" or ends with "/"
-            if (!tmp.isEmpty() && tmp.charAt(tmp.length()-1) != '/') {
-                outDirRoot = tmp + "/";
-            } else {
-                outDirRoot = tmp;
+            // the options of all modes, none of them required, only tell which mode to run; the
+            // options of that mode are then parsed and checked on their own
+            Options all = new Options();
+            Job.addOptions(all);
+            for (Option option : all.getOptions()) {
+                option.setRequired(false);
             }
-            boolean copyNonClassFiles = cl.hasOption('c');
-            boolean srg = cl.hasOption('s');
-
-            System.err.println("parsing obfuscation mapping...");
-            MappingParser mp;
-            if (srg) {
-                mp = new SrgMappingParser(mappingFilePath);
-            } else {
-                mp = new ProguardMappingParser(mappingFilePath);
+            Options modes = new Options();
+            for (Option option : all.getOptions()) {
+                modes.addOption(option);
+            }
+            for (Option option : Arrays.asList(options.getOption("t"), serve, batch, reportOption, connect, modpack)) {
+                modes.addOption(option);
             }
-            Map<String, Remapper.ClassMapping> obfuscatedMappings = convertMappings(mp.parse());
-            Map<String, String> classNameMap = new HashMap<>();
-            Map<String, String> inverseClassNameMap = new HashMap<>();
-            obfuscatedMappings.forEach((String obfuscatedName, Remapper.ClassMapping cm) -> {
-                classNameMap.put(obfuscatedName, cm.originalName);
-                inverseClassNameMap.put(cm.originalName, obfuscatedName);
-            });
+            CommandLine mode = clp.parse(modes, args);
 
-            // build class hierarchy, build a list of classes to process, and copy non-class files to output directory
-            System.err.println("scanning input directory...");
-            Map<String, String[]> hier = new HashMap<>();
-            List<JavaClass> classes = new ArrayList<>();
-            Path inputDirPath = Paths.get(inputDir);
-            FileVisitor<Path> fv = new SimpleFileVisitor<Path>() {
-                @Override
-                public FileVisitResult visitFile(Path path, BasicFileAttributes attrs)
-                        throws IOException {
-                    String path_s = path.toString();
-                    if (path_s.endsWith(".class")) {
-                        ClassParser classParser = new ClassParser(path_s);
-                        JavaClass cls = classParser.parse();
-                        classes.add(cls);
-                        String className = cls.getClassName(); // separated with '.'
-                        if (className.endsWith("package-info")) {
-                            return FileVisitResult.CONTINUE;
-                        }
-                        ArrayList<String> parents = new ArrayList<>(); // FQCN, '.'-separated
-                        if (cls.getSuperclassNameIndex() > 0) {
-                            parents.add(cls.getSuperclassName());
-                        }
-                        Collections.addAll(parents, cls.getInterfaceNames());
-                        if (parents.size() > 0) {
-                            String[] parents_a = new String[parents.size()];
-                            for (int i = 0; i < parents_a.length; i++) {
-                                parents_a[i] = parents.get(i).replace('.', '/');
-                            }
-                            hier.put(className.replace('.', '/'), parents_a);
-                        }
-                    } else /* non-class file */{
-                        if (copyNonClassFiles) {
-                            Path relativePath = inputDirPath.relativize(path);
-                            FileUtils.copyFile(new File(path.toString()), new File(outDirRoot + relativePath.toString()));
-                        }
-                    }
-                    return FileVisitResult.CONTINUE;
+            if (mode.hasOption("serve")) {
+                options.addOption(serve);
+                CommandLine cl = clp.parse(options, args);
+                Daemon.serve(getPort(cl, "serve"), getThreadCount(cl));
+                return;
+            }
+            if (mode.hasOption("batch")) {
+                options.addOption(batch);
+                options.addOption(reportOption);
+                CommandLine cl = clp.parse(options, args);
+                List<Job> jobs = Batch.read(cl.getOptionValue("batch"));
+                int nWorker = getThreadCount(cl);
+                System.err.printf("number of worker threads: %d\n", nWorker);
+                if (!Batch.run(jobs, nWorker, cl.getOptionValue("report"))) {
+                    System.exit(1);
                 }
-            };
-            Files.walkFileTree(Paths.get(inputDir), fv);
-
-            System.err.println("deobfuscating...");
-            long startTime = System.currentTimeMillis();
-            int nWorker = Runtime.getRuntime().availableProcessors();
-            Thread[] workers = new Thread[nWorker];
-            CountDownLatch latch = new CountDownLatch(nWorker);
-            System.err.printf("number of worker threads: %d\n", nWorker);
-            class Worker extends Thread {
-                private int start, end;
-                private Worker(int start, int end) {
-                    this.start = start;
-                    this.end = end;
+                return;
+            }
+            Job.addOptions(options);
+            options.addOption(reportOption);
+            options.addOption(connect);
+            options.addOption(modpack);
+            CommandLine cl = clp.parse(options, args);
+            Job job = Job.parse(cl);
+            String reportPath = cl.getOptionValue("report");
+            if (cl.hasOption("modpack")) {
+                if (job.pipelined || job.incremental || cl.hasOption("connect")) {
+                    throw new ParseException("-p, -u and --connect do not apply to modpack mode");
                 }
-                public void run() {
-                    for (int i=start; i<end; i++) {
-                        JavaClass cls = classes.get(i);
-                        Remapper remapper = new Remapper(obfuscatedMappings, classNameMap, inverseClassNameMap, hier, cls);
-                        remapper.remap();
-                        Constant[] constants = cls.getConstantPool().getConstantPool();
-                        // get '/'-separated FQCN
-                        String fqClassName = ((ConstantUtf8)constants[((ConstantClass)constants[cls.getClassNameIndex()]).getNameIndex()]).getBytes();
-                        String outPath = outDirRoot + fqClassName + ".class";
-                        try {
-                            remapper.dump(outPath);
-                        } catch (IOException e) {
-                            System.err.println(e.getMessage());
-                        }
-                    }
-                    latch.countDown();
+                int nWorker = getThreadCount(cl);
+                System.err.printf("number of worker threads: %d\n", nWorker);
+                if (!Modpack.run(job, cl.getOptionValue("modpack"), nWorker, reportPath)) {
+                    System.exit(1);
                 }
+                return;
             }
-            int[] p = new int[nWorker+1];
-            int nClass = classes.size();
-            for (int i=0; i<nWorker; i++) {
-                p[i] = nClass*i/nWorker;
+            if (cl.hasOption("connect")) {
+                if (!Daemon.submit(getPort(cl, "connect"), job, reportPath)) {
+                    System.exit(1);
+                }
+                return;
             }
-            p[nWorker] = nClass;
-            for (int i=0; i<nWorker; i++) {
-                workers[i] = new Worker(p[i], p[i+1]);
-                workers[i].start();
+
+            int nWorker = getThreadCount(cl);
+            System.err.printf("number of worker threads: %d\n", nWorker);
+            WorkPool pool = new WorkPool(nWorker);
+            RunReport report = job.run(pool, new MappingStore(0));
+            pool.close();
+            if (reportPath != null) {
+                RunReport.write(reportPath, report.toJson());
+                System.err.println("wrote report to " + reportPath);
             }
-            latch.await();
-            long elapsed = System.currentTimeMillis() - startTime;
-            System.err.printf("done in %dms\n", elapsed);
+        } catch (NumberFormatException e) {
+            System.err.println("invalid number: " + e.getMessage());
+            System.exit(1);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
         } catch (ParseException | IOException | InvalidInputException | InterruptedException e) {
             System.err.println(e.getMessage());
             System.exit(1);
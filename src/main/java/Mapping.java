@@ -1,8 +1,8 @@
-import java.io.*;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
 
 public class Mapping {
     public static class FieldMapping {
@@ -42,4 +42,51 @@ public class Mapping {
             this.methodMappings = methodMappings;
         }
     }
+
+    /** Collects visited entries into a list of ClassMappings. */
+    public static class Collector implements MappingVisitor {
+        private final Map<String, ClassMapping> classMappings = new LinkedHashMap<>();
+        private final List<MethodMapping> obfuscatedDescriptors = new ArrayList<>();
+        private ClassMapping current;
+
+        @Override
+        public void visitClass(String obfuscatedName, String originalName) {
+            current = classMappings.get(obfuscatedName);
+            if (current == null) {
+                current = new ClassMapping(originalName, obfuscatedName, new ArrayList<>(), new ArrayList<>());
+                classMappings.put(obfuscatedName, current);
+            }
+            current.originalName = originalName;
+        }
+
+        @Override
+        public void visitField(String obfuscatedName, String originalName) {
+            current.fieldMappings.add(new FieldMapping(originalName, obfuscatedName, ""));
+        }
+
+        @Override
+        public void visitMethod(String obfuscatedName, String originalName, String descriptor, boolean obfuscatedDescriptor) {
+            MethodMapping mm = new MethodMapping(originalName, obfuscatedName, descriptor);
+            current.methodMappings.add(mm);
+            if (obfuscatedDescriptor) obfuscatedDescriptors.add(mm);
+        }
+
+        // descriptors are translated once all class names are known
+        @Override
+        public void visitEnd() {
+            Map<String, String> classNameMap = new HashMap<>();
+            for (ClassMapping cm : classMappings.values()) {
+                classNameMap.put(cm.obfuscatedName, cm.originalName);
+            }
+            SignatureMapper signatures = new SignatureMapper(classNameMap, 0);
+            for (MethodMapping mm : obfuscatedDescriptors) {
+                mm.type = signatures.map(mm.type);
+            }
+            obfuscatedDescriptors.clear();
+        }
+
+        public List<ClassMapping> getClassMappings() {
+            return new ArrayList<>(classMappings.values());
+        }
+    }
 }
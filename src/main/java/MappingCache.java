@@ -0,0 +1,163 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Binary form of the resolved mapping index, stored next to the mapping file as
+ * {@code <mapping file>.cache}. The cache is only used if the SHA-1 of the mapping file and the
+ * format it was parsed with match the header, otherwise the mapping is parsed again.
+ *
+ * <pre>
+ * header:  int magic, int version, byte[20] source SHA-1, string format
+ * strings: int symbolCount, int stringCount, stringCount * string
+ * classes: int count, count * (int obfuscatedName, int originalName,
+ *          int fieldCount, fieldCount * (int nameId, int originalName),
+ *          int methodCount, methodCount * (long memberKey, int originalName))
+ * </pre>
+ * A string is an int length followed by that many bytes of UTF-8. Strings are referred to by index. The first symbolCount strings are the symbol table, in ID
+ * order.
+ */
+public class MappingCache {
+    private static final int MAGIC = 0x4d434449; // "MCDI"
+    private static final int VERSION = 1;
+
+    public static String getCachePath(String mappingFilePath) {
+        return mappingFilePath + ".cache";
+    }
+
+    public static byte[] hash(String filePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            return md.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Loads the cached index, interning symbols into {@code symbols}, which must be empty.
+     * Returns null if there is no usable cache.
+     */
+    public static Map<String, Remapper.ClassMapping> load(String cachePath, byte[] sourceHash, String format, SymbolTable symbols) throws IOException {
+        Path path = Paths.get(cachePath);
+        if (!Files.isRegularFile(path)) return null;
+        MappedByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) return null;
+            byte[] hash = new byte[sourceHash.length];
+            buf.get(hash);
+            if (!Arrays.equals(hash, sourceHash) || !format.equals(getString(buf))) return null;
+
+            int symbolCount = buf.getInt();
+            String[] strings = new String[buf.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = getString(buf);
+                if (i < symbolCount) symbols.intern(strings[i]);
+            }
+            int classCount = buf.getInt();
+            Map<String, Remapper.ClassMapping> result = new HashMap<>(classCount * 2);
+            for (int i = 0; i < classCount; i++) {
+                Remapper.ClassMapping cm = new Remapper.ClassMapping(strings[buf.getInt()], strings[buf.getInt()], symbols);
+                for (int n = buf.getInt(); n > 0; n--) {
+                    cm.fieldMap.put(buf.getInt(), strings[buf.getInt()]);
+                }
+                for (int n = buf.getInt(); n > 0; n--) {
+                    cm.methodMap.put(buf.getLong(), strings[buf.getInt()]);
+                }
+                result.put(cm.obfuscatedName, cm);
+            }
+            return result;
+        } catch (RuntimeException e) {
+            // truncated or otherwise damaged file
+            return null;
+        }
+    }
+
+    private static String getString(ByteBuffer buf) {
+        byte[] b = new byte[buf.getInt()];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    public static void save(String cachePath, byte[] sourceHash, String format, SymbolTable symbols,
+                            Map<String, Remapper.ClassMapping> mappings) throws IOException {
+        // other strings are numbered after the symbols in order of first use
+        List<String> strings = new ArrayList<>();
+        Map<String, Integer> stringIndex = new HashMap<>();
+        int symbolCount = symbols.size();
+        for (int i = 0; i < symbolCount; i++) {
+            strings.add(symbols.getSymbol(i));
+            stringIndex.put(symbols.getSymbol(i), i);
+        }
+        ByteArrayOutputStream classes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(classes);
+        out.writeInt(mappings.size());
+        for (Remapper.ClassMapping cm : mappings.values()) {
+            out.writeInt(indexOf(cm.obfuscatedName, strings, stringIndex));
+            out.writeInt(indexOf(cm.originalName, strings, stringIndex));
+            out.writeInt(cm.fieldMap.size());
+            IOException[] error = new IOException[1];
+            cm.fieldMap.forEach((key, name) -> {
+                try {
+                    out.writeInt((int) key);
+                    out.writeInt(indexOf(name, strings, stringIndex));
+                } catch (IOException e) {
+                    error[0] = e;
+                }
+            });
+            out.writeInt(cm.methodMap.size());
+            cm.methodMap.forEach((key, name) -> {
+                try {
+                    out.writeLong(key);
+                    out.writeInt(indexOf(name, strings, stringIndex));
+                } catch (IOException e) {
+                    error[0] = e;
+                }
+            });
+            if (error[0] != null) throw error[0];
+        }
+        out.flush();
+
+        Path path = Paths.get(cachePath);
+        Path tmp = Paths.get(cachePath + ".tmp");
+        try (DataOutputStream file = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            file.writeInt(MAGIC);
+            file.writeInt(VERSION);
+            file.write(sourceHash);
+            putString(file, format);
+            file.writeInt(symbolCount);
+            file.writeInt(strings.size());
+            for (String s : strings) {
+                putString(file, s);
+            }
+            classes.writeTo(file);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static int indexOf(String s, List<String> strings, Map<String, Integer> stringIndex) {
+        Integer index = stringIndex.get(s);
+        if (index == null) {
+            index = strings.size();
+            strings.add(s);
+            stringIndex.put(s, index);
+        }
+        return index;
+    }
+
+    private static void putString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+}
@@ -0,0 +1,82 @@
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Composes two mappings, the first from obfuscated to intermediate names and the second from
+ * intermediate to final names, into one from obfuscated to final names, so a chain of mappings
+ * is applied in one pass. Method descriptors are translated to final names on the way, as the
+ * mappings key methods by the descriptor in their original names. Names the second mapping does
+ * not know are kept from the first. Classes and members the first mapping leaves alone but the
+ * second renames are taken over from the second.
+ */
+public class MappingComposer {
+    private MappingComposer() {
+    }
+
+    /** Returns the composed mappings, whose member names are interned into {@code symbols}. */
+    public static Map<String, Remapper.ClassMapping> compose(Map<String, Remapper.ClassMapping> first,
+                                                             Map<String, Remapper.ClassMapping> second, SymbolTable symbols) {
+        Map<String, String> classNameMap = new HashMap<>();
+        second.forEach((intermediateName, cm) -> classNameMap.put(intermediateName, cm.originalName));
+        SignatureMapper toFinal = new SignatureMapper(classNameMap, SignatureMapper.DEFAULT_CACHE_SIZE);
+
+        Map<String, Remapper.ClassMapping> result = new HashMap<>(first.size() * 2);
+        Set<String> intermediateNames = new HashSet<>();
+        for (Remapper.ClassMapping a : first.values()) {
+            intermediateNames.add(a.originalName);
+            Remapper.ClassMapping b = second.get(a.originalName);
+            Remapper.ClassMapping c = new Remapper.ClassMapping(a.obfuscatedName, b != null ? b.originalName : a.originalName, symbols);
+            SymbolTable as = a.symbols;
+            Set<String> fieldsSeen = new HashSet<>(); // intermediate names reached through the first mapping
+            a.fieldMap.forEach((key, intermediateName) -> {
+                String name = b != null ? b.mapFieldName(intermediateName) : null;
+                c.fieldMap.put(symbols.intern(as.getSymbol((int) key)), name != null ? name : intermediateName);
+                fieldsSeen.add(intermediateName);
+            });
+            Set<String> methodsSeen = new HashSet<>();
+            a.methodMap.forEach((key, intermediateName) -> {
+                String descriptor = toFinal.map(as.getSymbol(SymbolTable.descId(key)));
+                String name = b != null ? b.mapMethodName(intermediateName, descriptor) : null;
+                c.methodMap.put(SymbolTable.memberKey(symbols.intern(as.getSymbol(SymbolTable.nameId(key))), symbols.intern(descriptor)),
+                        name != null ? name : intermediateName);
+                methodsSeen.add(intermediateName + descriptor);
+            });
+            if (b != null) {
+                addUnseen(b, c, fieldsSeen, methodsSeen);
+            }
+            result.put(c.obfuscatedName, c);
+        }
+        // classes the first mapping does not rename
+        for (Remapper.ClassMapping b : second.values()) {
+            if (intermediateNames.contains(b.obfuscatedName) || first.containsKey(b.obfuscatedName)) continue;
+            Remapper.ClassMapping c = new Remapper.ClassMapping(b.obfuscatedName, b.originalName, symbols);
+            addUnseen(b, c, new HashSet<>(), new HashSet<>());
+            result.put(c.obfuscatedName, c);
+        }
+        return result;
+    }
+
+    // adds the members of b that the first mapping does not rename, unless an obfuscated member of
+    // c already has that name
+    private static void addUnseen(Remapper.ClassMapping b, Remapper.ClassMapping c, Set<String> fieldsSeen, Set<String> methodsSeen) {
+        SymbolTable bs = b.symbols;
+        SymbolTable symbols = c.symbols;
+        b.fieldMap.forEach((key, name) -> {
+            String intermediateName = bs.getSymbol((int) key);
+            int id = symbols.intern(intermediateName);
+            if (!fieldsSeen.contains(intermediateName) && !c.fieldMap.containsKey(id)) {
+                c.fieldMap.put(id, name);
+            }
+        });
+        b.methodMap.forEach((key, name) -> {
+            String intermediateName = bs.getSymbol(SymbolTable.nameId(key));
+            String descriptor = bs.getSymbol(SymbolTable.descId(key));
+            long id = SymbolTable.memberKey(symbols.intern(intermediateName), symbols.intern(descriptor));
+            if (!methodsSeen.contains(intermediateName + descriptor) && !c.methodMap.containsKey(id)) {
+                c.methodMap.put(id, name);
+            }
+        });
+    }
+}
@@ -0,0 +1,110 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A loaded obfuscation mapping with everything derived from it that does not depend on the input:
+ * the class mappings, both class name maps and the signature mapper.
+ */
+public class MappingIndex {
+    final SymbolTable symbols;
+    final Map<String, Remapper.ClassMapping> obfuscatedMappings;
+    final Map<String, String> classNameMap;
+    final Map<String, String> inverseClassNameMap;
+    final SignatureMapper signatures;
+
+    private MappingIndex(SymbolTable symbols, Map<String, Remapper.ClassMapping> obfuscatedMappings,
+                         Map<String, String> classNameMap, Map<String, String> inverseClassNameMap, SignatureMapper signatures) {
+        this.symbols = symbols;
+        this.obfuscatedMappings = obfuscatedMappings;
+        this.classNameMap = classNameMap;
+        this.inverseClassNameMap = inverseClassNameMap;
+        this.signatures = signatures;
+    }
+
+    /**
+     * Loads a chain of mappings, each of which maps the names the one before maps to, and
+     * composes them into one with {@link MappingComposer}. Each mapping is loaded from its binary
+     * cache if it is up to date, otherwise it is parsed on the threads of {@code pool} and the
+     * cache is updated.
+     */
+    public static MappingIndex load(List<String> mappingFilePaths, List<String> formats, boolean useCache, WorkPool pool,
+                                    RunReport report)
+            throws IOException, InvalidInputException {
+        RunReport.Stage stage = report.begin("mapping");
+        List<String> cacheStates = new ArrayList<>();
+        SymbolTable symbols = new SymbolTable();
+        Map<String, Remapper.ClassMapping> obfuscatedMappings = load(mappingFilePaths.get(0), formats.get(0), useCache,
+                pool, symbols, cacheStates);
+        long size = new File(mappingFilePaths.get(0)).length();
+        for (int i = 1; i < mappingFilePaths.size(); i++) {
+            SymbolTable nextSymbols = new SymbolTable();
+            Map<String, Remapper.ClassMapping> next = load(mappingFilePaths.get(i), formats.get(i), useCache, pool, nextSymbols,
+                    cacheStates);
+            long t0 = System.currentTimeMillis();
+            SymbolTable composedSymbols = new SymbolTable();
+            obfuscatedMappings = MappingComposer.compose(obfuscatedMappings, next, composedSymbols);
+            symbols = composedSymbols;
+            size += new File(mappingFilePaths.get(i)).length();
+            System.err.printf("composed with %s in %dms\n", mappingFilePaths.get(i), System.currentTimeMillis() - t0);
+        }
+        report.put("mappingCache", String.join(",", cacheStates));
+        Map<String, String> classNameMap = new HashMap<>();
+        Map<String, String> inverseClassNameMap = new HashMap<>();
+        obfuscatedMappings.forEach((String obfuscatedName, Remapper.ClassMapping cm) -> {
+            classNameMap.put(obfuscatedName, cm.originalName);
+            inverseClassNameMap.put(cm.originalName, obfuscatedName);
+        });
+        SignatureMapper signatures = new SignatureMapper(classNameMap, SignatureMapper.DEFAULT_CACHE_SIZE);
+        stage.end(obfuscatedMappings.size(), size);
+        return new MappingIndex(symbols, obfuscatedMappings, classNameMap, inverseClassNameMap, signatures);
+    }
+
+    // loads one mapping file into symbols, which must be empty, and adds "hit", "miss" or
+    // "disabled" to cacheStates
+    private static Map<String, Remapper.ClassMapping> load(String mappingFilePath, String format, boolean useCache,
+                                                           WorkPool pool, SymbolTable symbols, List<String> cacheStates)
+            throws IOException, InvalidInputException {
+        Map<String, Remapper.ClassMapping> obfuscatedMappings = null;
+        String cachePath = MappingCache.getCachePath(mappingFilePath);
+        byte[] mappingHash = null;
+        if (useCache) {
+            long t0 = System.currentTimeMillis();
+            mappingHash = MappingCache.hash(mappingFilePath);
+            obfuscatedMappings = MappingCache.load(cachePath, mappingHash, format, symbols);
+            if (obfuscatedMappings != null) {
+                System.err.printf("loaded obfuscation mapping from %s in %dms\n", cachePath, System.currentTimeMillis() - t0);
+            }
+        }
+        cacheStates.add(!useCache ? "disabled" : obfuscatedMappings != null ? "hit" : "miss");
+        if (obfuscatedMappings == null) {
+            System.err.println("parsing obfuscation mapping...");
+            long t0 = System.currentTimeMillis();
+            MappingIndexBuilder builder = new MappingIndexBuilder(symbols);
+            MappingParser.open(mappingFilePath, format, pool).accept(builder);
+            obfuscatedMappings = builder.getMappings();
+            System.err.printf("parsed obfuscation mapping in %dms\n", System.currentTimeMillis() - t0);
+            if (useCache) {
+                try {
+                    MappingCache.save(cachePath, mappingHash, format, symbols, obfuscatedMappings);
+                } catch (IOException e) {
+                    System.err.println("cannot write mapping cache: " + e.getMessage());
+                }
+            }
+        }
+        return obfuscatedMappings;
+    }
+
+    /**
+     * Returns a copy for one run. Conflict renames are added to the class mappings and depend on
+     * the input, so each run gets its own class mappings; everything else is shared.
+     */
+    public MappingIndex copy() {
+        Map<String, Remapper.ClassMapping> copies = new HashMap<>(obfuscatedMappings.size() * 2);
+        obfuscatedMappings.forEach((obfuscatedName, cm) -> copies.put(obfuscatedName, new Remapper.ClassMapping(cm)));
+        return new MappingIndex(symbols, copies, classNameMap, inverseClassNameMap, signatures);
+    }
+}
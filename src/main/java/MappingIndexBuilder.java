@@ -0,0 +1,83 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the {@link Remapper.ClassMapping} index directly from parser events, interning member
+ * names and descriptors into a {@link SymbolTable}.
+ */
+public class MappingIndexBuilder implements MappingVisitor {
+    private final SymbolTable symbols;
+    private final Map<String, Remapper.ClassMapping> mappings = new HashMap<>();
+    private Remapper.ClassMapping current;
+
+    // methods whose descriptor has to be translated to original names once all classes are known
+    private static class PendingMethod {
+        final String className;
+        final String obfuscatedName;
+        final String originalName;
+        final String descriptor;
+
+        PendingMethod(String className, String obfuscatedName, String originalName, String descriptor) {
+            this.className = className;
+            this.obfuscatedName = obfuscatedName;
+            this.originalName = originalName;
+            this.descriptor = descriptor;
+        }
+    }
+
+    private final List<PendingMethod> pending = new ArrayList<>();
+
+    public MappingIndexBuilder(SymbolTable symbols) {
+        this.symbols = symbols;
+    }
+
+    @Override
+    public void visitClass(String obfuscatedName, String originalName) {
+        obfuscatedName = obfuscatedName.replace('.', '/');
+        originalName = originalName.replace('.', '/');
+        current = mappings.get(obfuscatedName);
+        if (current == null || !current.originalName.equals(originalName)) {
+            Remapper.ClassMapping cm = new Remapper.ClassMapping(obfuscatedName, originalName, symbols);
+            if (current != null) {
+                cm.fieldMap.putAll(current.fieldMap);
+                cm.methodMap.putAll(current.methodMap);
+            }
+            current = cm;
+            mappings.put(obfuscatedName, cm);
+        }
+    }
+
+    @Override
+    public void visitField(String obfuscatedName, String originalName) {
+        current.fieldMap.put(symbols.intern(obfuscatedName), originalName);
+    }
+
+    @Override
+    public void visitMethod(String obfuscatedName, String originalName, String descriptor, boolean obfuscatedDescriptor) {
+        if (obfuscatedDescriptor) {
+            pending.add(new PendingMethod(current.obfuscatedName, obfuscatedName, originalName, descriptor));
+        } else {
+            current.methodMap.put(SymbolTable.memberKey(symbols.intern(obfuscatedName), symbols.intern(descriptor)), originalName);
+        }
+    }
+
+    @Override
+    public void visitEnd() {
+        if (pending.isEmpty()) return;
+        Map<String, String> classNameMap = new HashMap<>();
+        mappings.forEach((obfuscatedName, cm) -> classNameMap.put(obfuscatedName, cm.originalName));
+        SignatureMapper signatures = new SignatureMapper(classNameMap, 0);
+        for (PendingMethod pm : pending) {
+            String descriptor = signatures.map(pm.descriptor);
+            mappings.get(pm.className).methodMap.put(SymbolTable.memberKey(symbols.intern(pm.obfuscatedName), symbols.intern(descriptor)), pm.originalName);
+        }
+        pending.clear();
+    }
+
+    /** Returns the index, mapping '/'-separated obfuscated class names to their mappings. */
+    public Map<String, Remapper.ClassMapping> getMappings() {
+        return mappings;
+    }
+}
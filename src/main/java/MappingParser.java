@@ -1,6 +1,40 @@
-import java.io.IOException;
-import java.util.List;
-
-public interface MappingParser {
-    public List<Mapping.ClassMapping> parse() throws IOException, InvalidInputException;
-}
+import java.io.IOException;
+import java.util.List;
+
+public interface MappingParser {
+    /** Parses the mapping file and passes every entry to the visitor, in file order. */
+    void accept(MappingVisitor visitor) throws IOException, InvalidInputException;
+
+    public default List<Mapping.ClassMapping> parse() throws IOException, InvalidInputException {
+        Mapping.Collector collector = new Mapping.Collector();
+        accept(collector);
+        return collector.getClassMappings();
+    }
+
+    /**
+     * Opens a mapping file. {@code format} is one of "proguard", "srg", "tsrg" and "tiny". For Tiny
+     * files the namespaces to map between can be given as "tiny:from:to"; by default the first
+     * namespace is mapped to the last one.
+     */
+    static MappingParser open(String filePath, String format) throws IOException, InvalidInputException {
+        return open(filePath, format, null);
+    }
+
+    /** Opens a mapping file, see above. Formats that are parsed in parallel use the threads of {@code pool}. */
+    static MappingParser open(String filePath, String format, WorkPool pool) throws IOException, InvalidInputException {
+        String[] f = format.split(":");
+        switch (f[0]) {
+            case "proguard":
+                return new ProguardMappingParser(filePath, pool);
+            case "srg":
+                return new SrgMappingParser(filePath);
+            case "tsrg":
+                return new TsrgMappingParser(filePath);
+            case "tiny":
+                if (f.length == 3) return new TinyMappingParser(filePath, f[1], f[2]);
+                if (f.length == 1) return new TinyMappingParser(filePath, null, null);
+                break;
+        }
+        throw new IllegalArgumentException("unknown mapping format: " + format);
+    }
+}
@@ -0,0 +1,54 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the most recently used mapping indexes in memory, keyed by the SHA-1 and the format of
+ * each mapping file in the chain, so a daemon parses each mapping once. With a capacity of 0 nothing is kept and
+ * every run loads its mapping.
+ */
+public class MappingStore {
+    private final int capacity;
+    private final LinkedHashMap<String, MappingIndex> indexes;
+
+    public MappingStore(int capacity) {
+        this.capacity = capacity;
+        indexes = new LinkedHashMap<String, MappingIndex>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MappingIndex> eldest) {
+                return size() > MappingStore.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the mapping index for one run, which may add conflict renames to it. A mapping that
+     * is not in memory is parsed on the threads of {@code pool}.
+     */
+    public MappingIndex get(List<String> mappingFilePaths, List<String> formats, boolean useCache, WorkPool pool,
+                            RunReport report) throws IOException, InvalidInputException {
+        if (capacity == 0) return MappingIndex.load(mappingFilePaths, formats, useCache, pool, report);
+        StringBuilder key = new StringBuilder();
+        long size = 0;
+        for (int i = 0; i < mappingFilePaths.size(); i++) {
+            key.append(Util.toHex(MappingCache.hash(mappingFilePaths.get(i)))).append(' ').append(formats.get(i)).append('\n');
+            size += new File(mappingFilePaths.get(i)).length();
+        }
+        synchronized (this) {
+            MappingIndex index = indexes.get(key.toString());
+            if (index == null) {
+                index = MappingIndex.load(mappingFilePaths, formats, useCache, pool, report);
+                indexes.put(key.toString(), index);
+                return index.copy();
+            }
+            RunReport.Stage stage = report.begin("mapping");
+            System.err.println("using obfuscation mapping in memory");
+            report.put("mappingCache", "memory");
+            MappingIndex copy = index.copy();
+            stage.end(copy.obfuscatedMappings.size(), size);
+            return copy;
+        }
+    }
+}
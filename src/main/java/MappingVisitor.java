@@ -0,0 +1,20 @@
+/**
+ * Receives the entries of a mapping file while it is parsed. Class names are '/'-separated.
+ * Fields and methods belong to the class visited last. Visiting a class again continues it.
+ */
+public interface MappingVisitor {
+    void visitClass(String obfuscatedName, String originalName);
+
+    void visitField(String obfuscatedName, String originalName);
+
+    /**
+     * @param descriptor            method descriptor
+     * @param obfuscatedDescriptor  true if class names in the descriptor are obfuscated names,
+     *                              false if they are original names
+     */
+    void visitMethod(String obfuscatedName, String originalName, String descriptor, boolean obfuscatedDescriptor);
+
+    /** Called once after the last entry. */
+    default void visitEnd() {
+    }
+}
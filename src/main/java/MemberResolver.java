@@ -0,0 +1,143 @@
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves field and method names through the class hierarchy. For each class, the mapped
+ * members of the class and all of its ancestors are flattened into one table, so a lookup costs
+ * one hash lookup no matter how deep the class is. All tables are built in parallel by the
+ * constructor, after which the index is read-only and shared by all threads without locking. The
+ * mappings and the hierarchy must be complete, including conflict renames, and must not change
+ * afterwards. Classes that only turn up later, such as those a running game loads from mods, can
+ * be added with {@link #addClass}.
+ */
+public class MemberResolver {
+    private static final Table EMPTY = new Table(new LongMap<>(), new LongMap<>(), 0);
+
+    private final Map<String, Remapper.ClassMapping> obfuscatedMappings;
+    private final Map<String, String[]> hierarchy;
+    private final SymbolTable symbols;
+    private ConcurrentHashMap<String, Table> building = new ConcurrentHashMap<>();
+    private final Map<String, Table> tables;
+    private final ConcurrentHashMap<String, Table> addedTables = new ConcurrentHashMap<>();
+
+    private static class Table {
+        final LongMap<String> fieldMap;
+        final LongMap<String> methodMap;
+        final int depth; // number of classes above the class on the longest path to a root
+
+        Table(LongMap<String> fieldMap, LongMap<String> methodMap, int depth) {
+            this.fieldMap = fieldMap;
+            this.methodMap = methodMap;
+            this.depth = depth;
+        }
+    }
+
+    MemberResolver(Map<String, Remapper.ClassMapping> obfuscatedMappings, Map<String, String[]> hierarchy, SymbolTable symbols,
+                   WorkPool pool) throws IOException, InterruptedException {
+        this.obfuscatedMappings = obfuscatedMappings;
+        this.hierarchy = hierarchy;
+        this.symbols = symbols;
+        Set<String> classNames = new HashSet<>(obfuscatedMappings.keySet());
+        classNames.addAll(hierarchy.keySet());
+        pool.run("index", new ArrayList<>(classNames), className -> 1, this::getTable).print();
+        tables = new HashMap<>(building);
+        building = null;
+    }
+
+    // same precedence as a depth-first search: the class itself, then the first parent and its
+    // ancestors, then the second parent and so on
+    private Table getTable(String obfuscatedClassName) {
+        Table table = building.get(obfuscatedClassName);
+        if (table != null) return table;
+        Remapper.ClassMapping cm = obfuscatedMappings.get(obfuscatedClassName);
+        String[] parents = hierarchy.get(obfuscatedClassName);
+        if (parents == null || parents.length == 0) {
+            // the mappings do not change anymore, so their maps are used as they are
+            table = cm == null ? EMPTY : new Table(cm.fieldMap, cm.methodMap, 0);
+        } else if (cm == null && parents.length == 1) {
+            Table parent = getTable(parents[0]);
+            table = new Table(parent.fieldMap, parent.methodMap, parent.depth + 1);
+        } else {
+            LongMap<String> fieldMap = new LongMap<>();
+            LongMap<String> methodMap = new LongMap<>();
+            int depth = 0;
+            for (int i = parents.length - 1; i >= 0; i--) {
+                Table parent = getTable(parents[i]);
+                fieldMap.putAll(parent.fieldMap);
+                methodMap.putAll(parent.methodMap);
+                depth = Math.max(depth, parent.depth + 1);
+            }
+            if (cm != null) {
+                fieldMap.putAll(cm.fieldMap);
+                methodMap.putAll(cm.methodMap);
+            }
+            table = new Table(fieldMap, methodMap, depth);
+        }
+        Table existing = building.putIfAbsent(obfuscatedClassName, table);
+        return existing == null ? table : existing;
+    }
+
+    private Table lookup(String obfuscatedClassName) {
+        Table table = tables.get(obfuscatedClassName);
+        if (table == null) table = addedTables.get(obfuscatedClassName);
+        return table == null ? EMPTY : table;
+    }
+
+    /** Returns true if the class was in the hierarchy or the mappings the index was built from. */
+    public boolean isIndexed(String obfuscatedClassName) {
+        return tables.containsKey(obfuscatedClassName);
+    }
+
+    /** Returns true if the class was indexed or added. */
+    public boolean knows(String obfuscatedClassName) {
+        return tables.containsKey(obfuscatedClassName) || addedTables.containsKey(obfuscatedClassName);
+    }
+
+    /**
+     * Adds a class that was not in the hierarchy, which inherits the mapped members of its
+     * parents and maps none of its own. Its parents must be known already, or they are taken to
+     * have no mapped members. Does nothing if the class is known.
+     */
+    public void addClass(String obfuscatedClassName, String[] parents) {
+        if (knows(obfuscatedClassName)) return;
+        LongMap<String> fieldMap = new LongMap<>();
+        LongMap<String> methodMap = new LongMap<>();
+        int depth = 0;
+        for (int i = parents.length - 1; i >= 0; i--) {
+            Table parent = lookup(parents[i]);
+            fieldMap.putAll(parent.fieldMap);
+            methodMap.putAll(parent.methodMap);
+            depth = Math.max(depth, parent.depth + 1);
+        }
+        addedTables.putIfAbsent(obfuscatedClassName, new Table(fieldMap, methodMap, depth));
+    }
+
+    /**
+     * Returns the number of classes above a class on its longest path to a root of the known
+     * hierarchy, i.e. how many classes a lookup would search without the flattened tables.
+     */
+    public int getDepth(String obfuscatedClassName) {
+        return lookup(obfuscatedClassName).depth;
+    }
+
+    /** Returns true if the class or one of its ancestors has mapped fields or methods. */
+    public boolean hasMappedMembers(String obfuscatedClassName) {
+        Table table = lookup(obfuscatedClassName);
+        return table.fieldMap.size() > 0 || table.methodMap.size() > 0;
+    }
+
+    /** Returns the original name of a field, or null if neither the class nor its ancestors map it. */
+    public String mapFieldName(String obfuscatedClassName, String name) {
+        int nameId = symbols.get(name);
+        return nameId < 0 ? null : lookup(obfuscatedClassName).fieldMap.get(nameId);
+    }
+
+    /** Returns the original name of a method, or null if neither the class nor its ancestors map it. */
+    public String mapMethodName(String obfuscatedClassName, String name, String desc) {
+        int nameId = symbols.get(name);
+        if (nameId < 0) return null;
+        int descId = symbols.get(desc);
+        return descId < 0 ? null : lookup(obfuscatedClassName).methodMap.get(SymbolTable.memberKey(nameId, descId));
+    }
+}
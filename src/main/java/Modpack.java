@@ -0,0 +1,280 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Modpack mode. Remaps every jar in a directory of mods against the game, each into a jar of the
+ * same name in the output directory. The mappings are loaded and the hierarchy of all mods is
+ * built and indexed once; the game and the libraries are looked up on demand like the
+ * {@code --classpath} of a single job, so the index of a game jar is cached between runs. The
+ * jars are then remapped several at a time on one shared worker pool. A mod that fails does not
+ * stop the others.
+ */
+public class Modpack {
+    // a mod jar and the parts of it that are remapped or copied
+    private static class Mod {
+        final Path path;
+        final String outputPath;
+        final List<Input.Entry> classes = new ArrayList<>();
+        final List<Input.Entry> others = new ArrayList<>();
+        Input input;
+        ClassHeader[] headers;
+        volatile String error; // why a class could not be read, the mod is skipped then
+        RunReport report;
+
+        Mod(Path path, String outputPath) {
+            this.path = path;
+            this.outputPath = outputPath;
+        }
+    }
+
+    // a class of a mod, for building the hierarchy
+    private static class ClassRef {
+        final Mod mod;
+        final int index;
+
+        ClassRef(Mod mod, int index) {
+            this.mod = mod;
+            this.index = index;
+        }
+
+        Input.Entry entry() {
+            return mod.classes.get(index);
+        }
+    }
+
+    private final Job job; // the options shared by all mods, its input is the game
+    private final WorkPool workers;
+    private MappingIndex mappings;
+    private MemberResolver resolver;
+
+    private Modpack(Job job, WorkPool workers) {
+        this.job = job;
+        this.workers = workers;
+    }
+
+    // the mod jars of a directory, sorted by name
+    private static List<Path> listJars(String modDir) throws IOException {
+        List<Path> jars = new ArrayList<>();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(Paths.get(modDir), "*.jar")) {
+            for (Path path : dir) {
+                if (Files.isRegularFile(path)) jars.add(path);
+            }
+        }
+        Collections.sort(jars);
+        return jars;
+    }
+
+    /**
+     * Remaps the mods in {@code modDir} with the mappings and options of {@code job}, whose input
+     * is the game and whose output is a directory for the remapped mods. Prints the timings of
+     * each mod and writes the report if {@code reportPath} is not null. Returns false if a mod
+     * failed.
+     */
+    public static boolean run(Job job, String modDir, int nWorker, String reportPath)
+            throws IOException, InvalidInputException, InterruptedException {
+        List<Path> jars = listJars(modDir);
+        if (jars.isEmpty()) {
+            throw new IOException(modDir + ": no mod jars");
+        }
+        RunReport report = new RunReport();
+        report.put("mapping", String.join(",", job.mappingFilePaths));
+        report.put("format", String.join(",", job.formats));
+        report.put("game", job.inputPath);
+        report.put("mods", modDir);
+        report.put("output", job.outputPath);
+        report.put("engine", job.direct ? "direct" : "bcel");
+        report.put("threads", nWorker);
+
+        List<Mod> mods = new ArrayList<>();
+        int failed;
+        try (WorkPool workers = new WorkPool(nWorker)) {
+            Modpack modpack = new Modpack(job, workers);
+            modpack.index(jars, mods, report);
+            failed = modpack.remapAll(mods, nWorker, report);
+        } finally {
+            for (Mod mod : mods) {
+                if (mod.input != null) mod.input.close();
+            }
+        }
+
+        System.err.printf("%d of %d mods done\n", mods.size() - failed, mods.size());
+        System.err.print(report.summary());
+        if (reportPath != null) {
+            List<Object> modReports = new ArrayList<>();
+            for (Mod mod : mods) {
+                if (mod.report != null) modReports.add(mod.report.toMap());
+            }
+            report.put("jars", modReports);
+            RunReport.write(reportPath, report.toJson());
+            System.err.println("wrote report to " + reportPath);
+        }
+        return failed == 0;
+    }
+
+    // loads the mappings, and builds the hierarchy of all mods and the member index
+    private void index(List<Path> jars, List<Mod> mods, RunReport report)
+            throws IOException, InvalidInputException, InterruptedException {
+        WorkPool pool = workers.withReport(report);
+        mappings = new MappingStore(0).get(job.mappingFilePaths, job.formats, job.useCache, workers, report);
+
+        System.err.printf("scanning %d mods...\n", jars.size());
+        RunReport.Stage scan = report.begin("scan");
+        Files.createDirectories(Paths.get(job.outputPath));
+        List<ClassRef> classes = new ArrayList<>();
+        long classBytes = 0;
+        for (Path jar : jars) {
+            Mod mod = new Mod(jar, Paths.get(job.outputPath).resolve(jar.getFileName()).toString());
+            mods.add(mod);
+            mod.input = Input.open(jar.toString());
+            for (Input.Entry entry : mod.input.list()) {
+                if (entry.getName().endsWith(".class")) {
+                    classes.add(new ClassRef(mod, mod.classes.size()));
+                    mod.classes.add(entry);
+                    classBytes += entry.getSize();
+                } else /* non-class file */ {
+                    mod.others.add(entry);
+                }
+            }
+            mod.headers = new ClassHeader[mod.classes.size()];
+        }
+        scan.end(classes.size(), classBytes);
+        System.err.printf("found %d classes\n", classes.size());
+
+        System.err.println("building class hierarchy...");
+        pool.run("hierarchy", classes, ref -> ref.entry().getSize(), ref -> {
+            try (InputStream in = ref.entry().open()) {
+                ref.mod.headers[ref.index] = ClassHeader.readWithMembers(in);
+            } catch (IOException | RuntimeException e) {
+                ref.mod.error = ref.entry().getName() + ": " + (e.getMessage() != null ? e.getMessage() : e.toString());
+            }
+        }).print();
+        // a class in several mods, such as a shaded library, is taken from the first of them
+        Map<String, String[]> hier = new ConcurrentHashMap<>();
+        List<ClassHeader> headers = new ArrayList<>(classes.size());
+        Set<String> seen = new HashSet<>();
+        int duplicates = 0;
+        for (Mod mod : mods) {
+            if (mod.error != null) continue;
+            for (ClassHeader header : mod.headers) {
+                if (!seen.add(header.name)) {
+                    duplicates++;
+                    continue;
+                }
+                header.addTo(hier);
+                headers.add(header);
+            }
+        }
+        if (duplicates > 0) {
+            System.err.printf("%d classes are in more than one mod, the first one is used for the hierarchy\n", duplicates);
+        }
+
+        List<String> classPath = new ArrayList<>();
+        classPath.add(job.inputPath);
+        classPath.addAll(job.classPath);
+        ClassPath libraries = new ClassPath(classPath, job.useCache ? ClassPath.getDefaultCacheDir() : null, report);
+        headers.addAll(libraries.resolve(pool, hier, mappings.obfuscatedMappings.keySet()));
+        report.put("classPathCacheHits", libraries.getCacheHits());
+        resolver = Job.buildIndex(pool, headers, hier, mappings);
+    }
+
+    // remaps the mods several at a time, returns the number of mods that failed
+    private int remapAll(List<Mod> mods, int nWorker, RunReport report) throws InterruptedException {
+        System.err.println("deobfuscating...");
+        RunReport.Stage stage = report.begin("mods");
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger finished = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        // each mod spreads over all workers, so a few at a time keep them busy between mods
+        Thread[] threads = new Thread[Math.min(nWorker, mods.size())];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                int m;
+                while ((m = next.getAndIncrement()) < mods.size()) {
+                    Mod mod = mods.get(m);
+                    String name = mod.path.getFileName().toString();
+                    try {
+                        if (mod.error != null) throw new IOException(mod.error);
+                        WorkPool.Stats stats = remap(mod);
+                        System.err.printf("[%d/%d] %s: %d classes, %d files in %dms\n", finished.incrementAndGet(),
+                                mods.size(), name, mod.classes.size(), mod.others.size(), stats.wallNanos / 1000000);
+                    } catch (IOException | InterruptedException | RuntimeException e) {
+                        System.err.printf("[%d/%d] %s: failed: %s\n", finished.incrementAndGet(), mods.size(), name,
+                                e.getMessage() != null ? e.getMessage() : e.toString());
+                        failed.incrementAndGet();
+                        mod.report = null;
+                        try {
+                            Files.deleteIfExists(Paths.get(mod.outputPath));
+                        } catch (IOException ignored) {
+                            // reported above
+                        }
+                    } finally {
+                        closeInput(mod);
+                    }
+                }
+            }, "mod-" + t);
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        long size = 0;
+        for (Mod mod : mods) {
+            size += mod.path.toFile().length();
+        }
+        stage.end(mods.size(), size);
+        return failed.get();
+    }
+
+    private static void closeInput(Mod mod) {
+        try {
+            mod.input.close();
+        } catch (IOException e) {
+            // nothing was written to it
+        }
+        mod.input = null;
+    }
+
+    // remaps the classes of one mod and copies its other files if requested
+    private WorkPool.Stats remap(Mod mod) throws IOException, InterruptedException {
+        RunReport report = new RunReport();
+        report.put("input", mod.path.toString());
+        report.put("output", mod.outputPath);
+        mod.report = report;
+        int nClasses = mod.classes.size();
+        List<Integer> indices = new ArrayList<>();
+        for (int i = 0; i < nClasses + (job.copyNonClassFiles ? mod.others.size() : 0); i++) {
+            indices.add(i);
+        }
+        Map<String, String> classNameMap = mappings.classNameMap;
+        try (Output output = Output.open(mod.outputPath, job.level, job.fixedTime)) {
+            return workers.withReport(report).run("remap", indices,
+                    i -> i < nClasses ? mod.classes.get(i).getSize() : mod.others.get(i - nClasses).getSize(), i -> {
+                        if (i >= nClasses) {
+                            output.copy(mod.others.get(i - nClasses));
+                            return;
+                        }
+                        Input.Entry entry = mod.classes.get(i);
+                        byte[] data;
+                        try (InputStream in = entry.open()) {
+                            data = Util.readFully(in, entry.getSize());
+                        }
+                        ClassHeader header = mod.headers[i];
+                        if (Job.isUnaffected(header, classNameMap, resolver)) {
+                            report.classPassedThrough(data.length);
+                            output.write(header.name + ".class", data, entry.getTime());
+                            return;
+                        }
+                        Job.Remapped remapped = Job.remapOne(data, entry.getName(), job.direct, mappings, resolver, report);
+                        output.write(remapped.className + ".class", remapped.data, entry.getTime());
+                        report.classWritten(System.nanoTime() - remapped.endNanos);
+                    });
+        }
+    }
+}
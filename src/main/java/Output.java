@@ -0,0 +1,69 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.zip.Deflater;
+
+/**
+ * Destination of remapped classes and copied files, either a directory or a jar.
+ * Implementations are safe to use from multiple threads.
+ */
+public interface Output extends Closeable {
+    /** A file returned by {@link #prepare}, to be passed to {@link #write(Prepared)}. */
+    class Prepared {
+        final String name;
+        final long time;
+        final byte[] data;
+
+        Prepared(String name, long time) {
+            this(name, time, null);
+        }
+
+        Prepared(String name, long time, byte[] data) {
+            this.name = name;
+            this.time = time;
+            this.data = data;
+        }
+    }
+
+    /** Writes a file. {@code name} is '/'-separated and relative to the root of the output. */
+    void write(String name, byte[] data, long time) throws IOException;
+
+    /**
+     * Does the part of writing a file that does not depend on other files, such as compressing
+     * it, so that it can be done by the thread that produced the file while another thread
+     * writes. {@code data} must not be modified afterwards.
+     */
+    default Prepared prepare(String name, byte[] data, long time) throws IOException {
+        return new Prepared(name, time, data);
+    }
+
+    /** Writes a file returned by {@link #prepare} of this output. */
+    default void write(Prepared file) throws IOException {
+        write(file.name, file.data, file.time);
+    }
+
+    /** Copies an input file unchanged to the same relative path. */
+    void copy(Input.Entry entry) throws IOException;
+
+    /**
+     * Hard links an input file to the same relative path where both are files on one file system,
+     * and copies it otherwise.
+     */
+    default void link(Input.Entry entry) throws IOException {
+        copy(entry);
+    }
+
+    static Output open(String path) throws IOException {
+        return open(path, Deflater.DEFAULT_COMPRESSION, -1);
+    }
+
+    /**
+     * Opens a directory or a jar. For a jar, {@code level} is the deflate level of its entries
+     * (0 stores them) and {@code fixedTime}, if not negative, the time of all of its entries.
+     */
+    static Output open(String path, int level, long fixedTime) throws IOException {
+        if (path.endsWith(".jar")) {
+            return new JarOutput(path, level, fixedTime);
+        }
+        return new DirectoryOutput(path);
+    }
+}
@@ -0,0 +1,196 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Remaps classes in a read -> parse, remap and write pipeline. A reader thread feeds a bounded
+ * queue that consumers on the shared worker pool drain, and a class is dropped as soon as it has
+ * been written, so memory use is bounded by the byte budget instead of the size of the input. The
+ * reader does not run on the pool: it blocks while the budget is used up, and a pool busy with it
+ * could not run the consumers that free the budget. The class hierarchy of the resolver must be
+ * complete before the pipeline is started. Classes that remapping would not change can be given to
+ * be copied as they are.
+ */
+public class Pipeline {
+    private static class Item {
+        final Input.Entry entry;
+        final int index;
+        final int permits;
+        byte[] data;
+
+        Item(Input.Entry entry, int index, int permits) {
+            this.entry = entry;
+            this.index = index;
+            this.permits = permits;
+        }
+    }
+
+    private static final Item END = new Item(null, -1, 0);
+
+    private final WorkPool pool;
+    private final int nConsumer;
+    private final int budget; // bytes of class files in flight
+    private final MappingIndex mappings;
+    private final MemberResolver resolver;
+    private final Output output;
+    private final boolean direct; // remap with ClassRewriter instead of BCEL
+    private final String[] passthrough; // output names of classes copied unchanged, by entry, or null
+    private final RunReport report;
+    private WorkPool.Stats stats; // reader, consumers
+
+    private final Semaphore inFlight;
+    private final BlockingQueue<Item> parseQueue;
+    private volatile Throwable error;
+
+    Pipeline(WorkPool pool, long budget, MappingIndex mappings, MemberResolver resolver, Output output, boolean direct,
+             String[] passthrough, RunReport report) {
+        this.pool = pool;
+        this.nConsumer = pool.getThreadCount();
+        this.budget = (int) Math.min(budget, Integer.MAX_VALUE);
+        this.mappings = mappings;
+        this.resolver = resolver;
+        this.output = output;
+        this.direct = direct;
+        this.passthrough = passthrough;
+        this.report = report;
+        inFlight = new Semaphore(this.budget);
+        parseQueue = new ArrayBlockingQueue<>(nConsumer * 2);
+    }
+
+    private void fail(Throwable e) {
+        synchronized (this) {
+            if (error == null) error = e;
+        }
+    }
+
+    private void read(List<Input.Entry> entries) throws InterruptedException {
+        int me = 0;
+        try {
+            for (int i = 0; i < entries.size(); i++) {
+                if (error != null) break;
+                Input.Entry entry = entries.get(i);
+                // a class larger than the whole budget is let through alone
+                Item item = new Item(entry, i, (int) Math.min(entry.getSize(), budget));
+                inFlight.acquire(item.permits);
+                long t0 = System.nanoTime();
+                try (InputStream in = entry.open()) {
+                    item.data = Util.readFully(in, entry.getSize());
+                } catch (IOException e) {
+                    fail(e);
+                    inFlight.release(item.permits);
+                    break;
+                }
+                stats.busyNanos[me] += System.nanoTime() - t0;
+                stats.items[me]++;
+                parseQueue.put(item);
+            }
+        } finally {
+            // the consumers wait for these even if reading failed
+            for (int i = 0; i < nConsumer; i++) {
+                parseQueue.put(END);
+            }
+        }
+    }
+
+    private void consume(int me) {
+        long cpu = WorkPool.cpuTime();
+        try {
+            Item item;
+            while ((item = parseQueue.take()) != END) {
+                long t0 = System.nanoTime();
+                try {
+                    if (error == null) process(item);
+                } catch (RuntimeException e) {
+                    fail(e);
+                } finally {
+                    inFlight.release(item.permits);
+                }
+                stats.busyNanos[me] += System.nanoTime() - t0;
+                stats.items[me]++;
+            }
+        } catch (InterruptedException e) {
+            fail(e);
+        }
+        stats.cpuNanos[me] = WorkPool.cpuTime() - cpu;
+    }
+
+    // remaps or copies, compresses and writes one class
+    private void process(Item item) {
+        String outputName;
+        byte[] data;
+        if (passthrough != null && passthrough[item.index] != null) {
+            report.classPassedThrough(item.data.length);
+            outputName = passthrough[item.index];
+            data = item.data;
+        } else {
+            try {
+                Job.Remapped remapped = Job.remapOne(item.data, item.entry.getName(), direct, mappings, resolver, report);
+                outputName = remapped.className + ".class";
+                data = remapped.data;
+            } catch (IOException e) {
+                fail(e);
+                return;
+            }
+        }
+        item.data = null;
+        Output.Prepared file;
+        try {
+            file = output.prepare(outputName, data, item.entry.getTime());
+        } catch (IOException e) {
+            fail(e);
+            return;
+        }
+        long t0 = System.nanoTime();
+        try {
+            if (error == null) {
+                output.write(file);
+            }
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+        report.classWritten(System.nanoTime() - t0);
+    }
+
+    /**
+     * Remaps and writes the classes. Returns the time the reader and each consumer, in this order,
+     * spent working and how many classes each of them handled.
+     */
+    public WorkPool.Stats run(List<Input.Entry> entries) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        stats = new WorkPool.Stats("pipeline", nConsumer + 1);
+        stats.count = entries.size();
+        for (Input.Entry entry : entries) {
+            stats.size += entry.getSize();
+        }
+        Thread reader = new Thread(() -> {
+            long cpu = WorkPool.cpuTime();
+            try {
+                read(entries);
+            } catch (InterruptedException e) {
+                fail(e);
+            }
+            stats.cpuNanos[0] = WorkPool.cpuTime() - cpu;
+        }, "pipeline-reader");
+        reader.setDaemon(true);
+        reader.start();
+        List<Integer> consumers = new ArrayList<>(nConsumer);
+        for (int i = 0; i < nConsumer; i++) {
+            consumers.add(i + 1);
+        }
+        try {
+            // one consumer per batch, so they spread over the threads the pool has free
+            pool.run("pipeline", consumers, i -> 1, this::consume);
+        } finally {
+            reader.join();
+        }
+        stats.wallNanos = System.nanoTime() - start;
+        if (error instanceof IOException) throw (IOException) error;
+        if (error instanceof InterruptedException) throw (InterruptedException) error;
+        if (error != null) throw new IOException(error.getMessage(), error);
+        return stats;
+    }
+}
@@ -1,106 +1,371 @@
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-public class ProguardMappingParser implements MappingParser {
-    BufferedReader reader;
-    String currentLine;
-    int currentLineNo;
-
-    public ProguardMappingParser(String filePath) throws IOException {
-        reader = new BufferedReader(new FileReader(filePath));
-        readLine();
-    }
-
-    private static final String IDENT = "[0-9A-Za-z_$.<>-]+";
-    private static final String TYPE = "[0-9A-Za-z_$.]+(?:\\[\\])*";
-    private static final Pattern CLASS_MAPPING_PATTERN = Pattern.compile("(" + IDENT + ") -> (" + IDENT + "):");
-    private static final Pattern FIELD_MAPPING_PATTERN = Pattern.compile("    (" + TYPE + ") (" + IDENT + ") -> (" + IDENT + ")");
-    private static final Pattern METHOD_MAPPING_PATTERN = Pattern.compile("    (?:\\d+:\\d+:)?("+/*return*/TYPE+") ("+IDENT+")\\((|"+TYPE+"(?:,"+TYPE+")*)\\) -> ("+IDENT+")");
-
-    // ignores empty lines and lines starting with '#'
-    private void readLine() throws IOException {
-        do {
-            currentLine = reader.readLine();
-            currentLineNo++;
-        } while (currentLine != null && (currentLine.length() == 0 || currentLine.charAt(0) == '#'));
-    }
-
-    private Mapping.FieldMapping tryParseFieldMapping() throws IOException {
-        if (currentLine == null) return null;
-        Matcher m = FIELD_MAPPING_PATTERN.matcher(currentLine);
-        if (!m.matches()) return null;
-        readLine();
-        String type = m.group(1);
-        String originalName = m.group(2);
-        String obfuscatedName = m.group(3);
-        return new Mapping.FieldMapping(originalName, obfuscatedName, type);
-    }
-
-    private Mapping.MethodMapping tryParseMethodMapping() throws IOException {
-        if (currentLine == null) return null;
-        Matcher m = METHOD_MAPPING_PATTERN.matcher(currentLine);
-        if (!m.matches()) return null;
-        readLine();
-        String returnType = m.group(1);
-        String originalName = m.group(2);
-        String[] argTypes;
-        String group3 = m.group(3);
-        if (group3.isEmpty()) {
-            argTypes = new String[0];
-        } else {
-            argTypes = group3.split(",");
-        }
-        String obfuscatedName = m.group(4);
-        return new Mapping.MethodMapping(originalName, obfuscatedName, returnType, argTypes);
-    }
-
-    private Mapping.ClassMapping parseClassMapping() throws IOException, InvalidInputException {
-        Matcher m = CLASS_MAPPING_PATTERN.matcher(currentLine);
-        if (!m.matches()) {
-            throw new InvalidInputException(currentLineNo, "invalid syntax");
-        }
-        readLine();
-        String originalName = m.group(1);
-        String obfuscatedName = m.group(2);
-        List<Mapping.FieldMapping> fieldMappings = new ArrayList<>();
-        List<Mapping.MethodMapping> methodMappings = new ArrayList<>();
-        Mapping.FieldMapping fieldMapping;
-        while ((fieldMapping = tryParseFieldMapping()) != null) {
-            fieldMappings.add(fieldMapping);
-        }
-        Mapping.MethodMapping methodMapping;
-        while ((methodMapping = tryParseMethodMapping()) != null) {
-            methodMappings.add(methodMapping);
-        }
-        return new Mapping.ClassMapping(originalName, obfuscatedName, fieldMappings, methodMappings);
-    }
-
-    public List<Mapping.ClassMapping> parse() throws IOException, InvalidInputException {
-        List<Mapping.ClassMapping> result = new ArrayList<>();
-        while (currentLine != null) {
-            Mapping.ClassMapping mapping = parseClassMapping();
-            result.add(mapping);
-        }
-        return result;
-    }
-
-    public static void main(String[] args) {
-        if (args.length < 1) {
-            System.err.println("No file specified");
-            System.exit(1);
-        }
-        try {
-            ProguardMappingParser p = new ProguardMappingParser(args[0]);
-            List<Mapping.ClassMapping> classMappings = p.parse();
-            System.out.println(classMappings.size());
-        } catch (InvalidInputException | IOException e) {
-            System.err.println(e.getMessage());
-            System.exit(1);
-        }
-    }
-}
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parser for ProGuard mapping files such as Mojang's {@code client.txt}. The file is scanned
+ * byte by byte. Class blocks start at column 0, so the file is split at class headers into
+ * chunks that are parsed on the threads of a worker pool.
+ *
+ * Syntax, with IDENT = [0-9A-Za-z_$.<>-]+ and TYPE = [0-9A-Za-z_$.]+(\[\])*:
+ * <pre>
+ * IDENT -> IDENT:
+ *     TYPE IDENT -> IDENT
+ *     [\d+:\d+:]TYPE IDENT([TYPE[,TYPE]...]) -> IDENT
+ * </pre>
+ * Fields of a class come before its methods. Empty lines and lines starting with '#' are ignored.
+ */
+public class ProguardMappingParser implements MappingParser {
+    // chunks smaller than this are not worth a thread
+    private static final int MIN_CHUNK_SIZE = 1 << 18;
+
+    private final byte[] data;
+    private final WorkPool pool; // null to parse on the calling thread
+    private final int nThreads;
+
+    public ProguardMappingParser(String filePath) throws IOException {
+        this(filePath, null);
+    }
+
+    public ProguardMappingParser(String filePath, WorkPool pool) throws IOException {
+        data = Files.readAllBytes(Paths.get(filePath));
+        this.pool = pool;
+        nThreads = pool != null ? pool.getThreadCount() : 1;
+    }
+
+    // thrown by a chunk, line is relative to the start of the chunk
+    private static class ChunkException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int line;
+
+        ChunkException(int line) {
+            super(null, null, false, false);
+            this.line = line;
+        }
+    }
+
+    private static boolean isIdentChar(int c) {
+        return isTypeChar(c) || c == '<' || c == '>' || c == '-';
+    }
+
+    private static boolean isTypeChar(int c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_' || c == '$' || c == '.';
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /** Parses one chunk. {@code start} must be at the beginning of a line. */
+    private class Chunk {
+        private final int end;
+        private int pos; // start of the current line
+        private int lineEnd; // end of the current line, excluding the line terminator
+        private int lineNo; // relative to the start of the chunk
+        private final List<Mapping.ClassMapping> result = new ArrayList<>();
+
+        Chunk(int start, int end) {
+            this.end = end;
+            this.pos = start;
+            findLineEnd();
+            skipIgnoredLines();
+        }
+
+        private void findLineEnd() {
+            int i = pos;
+            while (i < end && data[i] != '\n' && data[i] != '\r') i++;
+            lineEnd = i;
+        }
+
+        private void nextLine() {
+            int i = lineEnd;
+            if (i < end && data[i] == '\r') i++;
+            if (i < end && data[i] == '\n') i++;
+            pos = i;
+            lineNo++;
+            findLineEnd();
+        }
+
+        private void skipIgnoredLines() {
+            while (pos < end && (lineEnd == pos || data[pos] == '#')) {
+                nextLine();
+            }
+        }
+
+        private void advance() {
+            nextLine();
+            skipIgnoredLines();
+        }
+
+        private String string(int from, int to) {
+            return new String(data, from, to - from, StandardCharsets.ISO_8859_1);
+        }
+
+        // returns the end of the IDENT starting at i, or -1 if there is none
+        private int scanIdent(int i, int limit) {
+            int j = i;
+            while (j < limit && isIdentChar(data[j])) j++;
+            return j > i ? j : -1;
+        }
+
+        // returns the end of the TYPE starting at i, or -1 if there is none
+        private int scanType(int i, int limit) {
+            int j = i;
+            while (j < limit && isTypeChar(data[j])) j++;
+            if (j == i) return -1;
+            while (j + 1 < limit && data[j] == '[' && data[j + 1] == ']') j += 2;
+            return j;
+        }
+
+        // returns the end of " -> " at i, or -1
+        private int scanArrow(int i) {
+            if (i + 4 > lineEnd || data[i] != ' ' || data[i + 1] != '-' || data[i + 2] != '>' || data[i + 3] != ' ') return -1;
+            return i + 4;
+        }
+
+        // appends the descriptor of the TYPE in [from, to), same as Util.encodeType
+        private void encodeType(StringBuilder sb, int from, int to) {
+            while (data[to - 1] == ']') {
+                sb.append('[');
+                to -= 2;
+            }
+            switch (to - from) {
+                case 3:
+                    if (matches(from, "int")) { sb.append('I'); return; }
+                    break;
+                case 4:
+                    if (matches(from, "byte")) { sb.append('B'); return; }
+                    if (matches(from, "char")) { sb.append('C'); return; }
+                    if (matches(from, "long")) { sb.append('J'); return; }
+                    if (matches(from, "void")) { sb.append('V'); return; }
+                    break;
+                case 5:
+                    if (matches(from, "float")) { sb.append('F'); return; }
+                    if (matches(from, "short")) { sb.append('S'); return; }
+                    break;
+                case 6:
+                    if (matches(from, "double")) { sb.append('D'); return; }
+                    break;
+                case 7:
+                    if (matches(from, "boolean")) { sb.append('Z'); return; }
+                    break;
+            }
+            sb.append('L');
+            for (int i = from; i < to; i++) {
+                sb.append(data[i] == '.' ? '/' : (char) data[i]);
+            }
+            sb.append(';');
+        }
+
+        private boolean matches(int at, String s) {
+            for (int i = 0; i < s.length(); i++) {
+                if (data[at + i] != s.charAt(i)) return false;
+            }
+            return true;
+        }
+
+        private boolean isMemberLine() {
+            return lineEnd - pos >= 4 && data[pos] == ' ' && data[pos + 1] == ' ' && data[pos + 2] == ' ' && data[pos + 3] == ' ';
+        }
+
+        private Mapping.FieldMapping tryParseFieldMapping() {
+            if (pos >= end || !isMemberLine()) return null;
+            int typeStart = pos + 4;
+            int typeEnd = scanType(typeStart, lineEnd);
+            if (typeEnd < 0 || typeEnd >= lineEnd || data[typeEnd] != ' ') return null;
+            int nameEnd = scanIdent(typeEnd + 1, lineEnd);
+            if (nameEnd < 0) return null;
+            int obfStart = scanArrow(nameEnd);
+            if (obfStart < 0) return null;
+            int obfEnd = scanIdent(obfStart, lineEnd);
+            if (obfEnd != lineEnd) return null;
+            Mapping.FieldMapping fm = new Mapping.FieldMapping(string(typeEnd + 1, nameEnd), string(obfStart, obfEnd), string(typeStart, typeEnd));
+            advance();
+            return fm;
+        }
+
+        private Mapping.MethodMapping tryParseMethodMapping() {
+            if (pos >= end || !isMemberLine()) return null;
+            int i = pos + 4;
+            // optional line numbers
+            int j = i;
+            while (j < lineEnd && isDigit(data[j])) j++;
+            if (j > i && j < lineEnd && data[j] == ':') {
+                int k = j + 1;
+                while (k < lineEnd && isDigit(data[k])) k++;
+                if (k > j + 1 && k < lineEnd && data[k] == ':') i = k + 1;
+            }
+            int retStart = i;
+            int retEnd = scanType(retStart, lineEnd);
+            if (retEnd < 0 || retEnd >= lineEnd || data[retEnd] != ' ') return null;
+            int nameStart = retEnd + 1;
+            int nameEnd = scanIdent(nameStart, lineEnd);
+            if (nameEnd < 0 || nameEnd >= lineEnd || data[nameEnd] != '(') return null;
+            StringBuilder desc = new StringBuilder("(");
+            i = nameEnd + 1;
+            if (i < lineEnd && data[i] != ')') {
+                while (true) {
+                    int argEnd = scanType(i, lineEnd);
+                    if (argEnd < 0 || argEnd >= lineEnd) return null;
+                    encodeType(desc, i, argEnd);
+                    if (data[argEnd] == ')') {
+                        i = argEnd;
+                        break;
+                    }
+                    if (data[argEnd] != ',') return null;
+                    i = argEnd + 1;
+                }
+            }
+            if (i >= lineEnd || data[i] != ')') return null;
+            int obfStart = scanArrow(i + 1);
+            if (obfStart < 0) return null;
+            int obfEnd = scanIdent(obfStart, lineEnd);
+            if (obfEnd != lineEnd) return null;
+            desc.append(')');
+            encodeType(desc, retStart, retEnd);
+            Mapping.MethodMapping mm = new Mapping.MethodMapping(string(nameStart, nameEnd), string(obfStart, obfEnd), desc.toString());
+            advance();
+            return mm;
+        }
+
+        private Mapping.ClassMapping parseClassMapping() throws ChunkException {
+            int nameEnd = scanIdent(pos, lineEnd);
+            int obfStart = nameEnd < 0 ? -1 : scanArrow(nameEnd);
+            int obfEnd = obfStart < 0 ? -1 : scanIdent(obfStart, lineEnd);
+            if (obfEnd < 0 || obfEnd + 1 != lineEnd || data[obfEnd] != ':') {
+                throw new ChunkException(lineNo);
+            }
+            String originalName = string(pos, nameEnd);
+            String obfuscatedName = string(obfStart, obfEnd);
+            advance();
+            List<Mapping.FieldMapping> fieldMappings = new ArrayList<>();
+            List<Mapping.MethodMapping> methodMappings = new ArrayList<>();
+            Mapping.FieldMapping fieldMapping;
+            while ((fieldMapping = tryParseFieldMapping()) != null) {
+                fieldMappings.add(fieldMapping);
+            }
+            Mapping.MethodMapping methodMapping;
+            while ((methodMapping = tryParseMethodMapping()) != null) {
+                methodMappings.add(methodMapping);
+            }
+            return new Mapping.ClassMapping(originalName, obfuscatedName, fieldMappings, methodMappings);
+        }
+
+        List<Mapping.ClassMapping> parse() throws ChunkException {
+            while (pos < end) {
+                result.add(parseClassMapping());
+            }
+            return result;
+        }
+    }
+
+    // a class header is a line that is not empty, not a comment and not indented
+    private boolean isClassHeader(int lineStart) {
+        byte c = data[lineStart];
+        return c != ' ' && c != '#' && c != '\n' && c != '\r';
+    }
+
+    private int[] splitChunks() {
+        int n = Math.max(1, Math.min(nThreads, data.length / MIN_CHUNK_SIZE));
+        List<Integer> bounds = new ArrayList<>();
+        bounds.add(0);
+        for (int k = 1; k < n; k++) {
+            int i = Math.max((int) ((long) data.length * k / n), bounds.get(bounds.size() - 1) + 1);
+            // move to the start of the next class header
+            while (i < data.length) {
+                if ((data[i - 1] == '\n' || data[i - 1] == '\r') && isClassHeader(i)) break;
+                i++;
+            }
+            if (i >= data.length) break;
+            bounds.add(i);
+        }
+        bounds.add(data.length);
+        int[] result = new int[bounds.size()];
+        for (int k = 0; k < result.length; k++) {
+            result[k] = bounds.get(k);
+        }
+        return result;
+    }
+
+    // 1-based line number of line chunkLine of the chunk starting at chunkStart
+    private int lineNumberAt(int chunkStart, int chunkLine) {
+        int line = 1;
+        for (int i = 0; i < chunkStart; i++) {
+            if (data[i] == '\n' || data[i] == '\r' && (i + 1 >= data.length || data[i + 1] != '\n')) line++;
+        }
+        return line + chunkLine;
+    }
+
+    // chunks are parsed in parallel, so the entries are only passed on after all chunks are done
+    @Override
+    public void accept(MappingVisitor visitor) throws IOException, InvalidInputException {
+        for (Mapping.ClassMapping cm : parse()) {
+            visitor.visitClass(cm.obfuscatedName.replace('.', '/'), cm.originalName.replace('.', '/'));
+            for (Mapping.FieldMapping fm : cm.fieldMappings) {
+                visitor.visitField(fm.obfuscatedName, fm.originalName);
+            }
+            for (Mapping.MethodMapping mm : cm.methodMappings) {
+                visitor.visitMethod(mm.obfuscatedName, mm.originalName, mm.type, false);
+            }
+        }
+        visitor.visitEnd();
+    }
+
+    @Override
+    public List<Mapping.ClassMapping> parse() throws IOException, InvalidInputException {
+        int[] bounds = splitChunks();
+        int nChunks = bounds.length - 1;
+        Object[] results = new Object[nChunks];
+        WorkPool.Task<Integer> parseChunk = chunk -> {
+            try {
+                results[chunk] = new Chunk(bounds[chunk], bounds[chunk + 1]).parse();
+            } catch (ChunkException e) {
+                results[chunk] = e;
+            }
+        };
+        if (nChunks == 1) {
+            parseChunk.run(0);
+        } else {
+            List<Integer> chunks = new ArrayList<>(nChunks);
+            for (int k = 0; k < nChunks; k++) {
+                chunks.add(k);
+            }
+            try {
+                pool.run("mapping", chunks, k -> bounds[k + 1] - bounds[k], parseChunk);
+            } catch (InterruptedException e) {
+                throw new IOException("interrupted", e);
+            }
+        }
+        List<Mapping.ClassMapping> result = new ArrayList<>();
+        for (int k = 0; k < nChunks; k++) {
+            if (results[k] instanceof ChunkException) {
+                throw new InvalidInputException(lineNumberAt(bounds[k], ((ChunkException) results[k]).line), "invalid syntax");
+            }
+            @SuppressWarnings("unchecked")
+            List<Mapping.ClassMapping> chunkResult = (List<Mapping.ClassMapping>) results[k];
+            result.addAll(chunkResult);
+        }
+        return result;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("No file specified");
+            System.exit(1);
+        }
+        try (WorkPool pool = new WorkPool(Runtime.getRuntime().availableProcessors())) {
+            long t0 = System.currentTimeMillis();
+            ProguardMappingParser p = new ProguardMappingParser(args[0], pool);
+            List<Mapping.ClassMapping> classMappings = p.parse();
+            System.out.println(classMappings.size());
+            System.err.printf("parsed in %dms\n", System.currentTimeMillis() - t0);
+        } catch (InvalidInputException | IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -12,55 +12,21 @@ import java.util.regex.Pattern;
 
 public class Remapper {
     private final Map<String, ClassMapping> obfuscatedMappings;
-    private final Map<String, String> classNameMap; // obf. -> original
+    private final SignatureMapper signatures;
     private final Map<String, String> inverseClassNameMap;
-    private final ClassMapping classMapping;
-    private final Map<String, String[]> hierarchy;
+    private final MemberResolver resolver;
+    private final RunReport.ClassCounters counters = new RunReport.ClassCounters();
     private final JavaClass jclass;
     private final String obfuscatedClassName; // *** path components separated with '/' ***
 
-    Remapper(Map<String, ClassMapping> obfuscatedMappings, Map<String, String> classNameMap, Map<String,String> inverseClassNameMap, Map<String, String[]> hierarchy, JavaClass jclass) {
+    Remapper(Map<String, ClassMapping> obfuscatedMappings, SignatureMapper signatures, Map<String,String> inverseClassNameMap, MemberResolver resolver, JavaClass jclass) {
         this.obfuscatedMappings = obfuscatedMappings;
-        this.classNameMap = classNameMap;
+        this.signatures = signatures;
         this.inverseClassNameMap = inverseClassNameMap;
         this.jclass = jclass;
         Constant[] constants = jclass.getConstantPool().getConstantPool();
         obfuscatedClassName = ((ConstantUtf8)constants[((ConstantClass)constants[jclass.getClassNameIndex()]).getNameIndex()]).getBytes();
-        classMapping = obfuscatedMappings.getOrDefault(obfuscatedClassName, null);
-        this.hierarchy = hierarchy;
-        if (classMapping != null) {
-            Set<String> originalFields = new HashSet<>();
-            classMapping.fieldMap.forEach((badName, goodName) -> {
-               originalFields.add(goodName);
-            });
-            Set<ImmutablePair<String, String>> originalMethods = new HashSet<>();
-            classMapping.methodMap.forEach((badNameAndType, goodName) -> {
-                originalMethods.add(new ImmutablePair<>(goodName, badNameAndType.right));
-            });
-            int i = 0;
-            for (Field field : jclass.getFields()) {
-                String fieldName = field.getName();
-                if (!classMapping.fieldMap.containsKey(fieldName) && originalFields.contains(fieldName)) {
-                    String newFieldName = fieldName + "_" + i;
-                    System.out.printf("in class %s: field %s -> %s\n", classMapping.originalName, fieldName, newFieldName);
-                    classMapping.fieldMap.put(fieldName, newFieldName);
-                }
-            }
-            i = 0;
-            for (Method method : jclass.getMethods()) {
-                String methodName = method.getName();
-                String methodDesc = Util.mapSignature(method.getSignature(), classNameMap);
-                ImmutablePair<String, String> key = new ImmutablePair<>(methodName, methodDesc);
-                if (!classMapping.methodMap.containsKey(key) /* method name not in obfuscation mapping */) {
-                    if (originalMethods.contains(key)) {
-                        String newMethodName = methodName + "_" + i;
-                        System.out.printf("in class %s: method %s -> %s\n", classMapping.originalName, methodName, newMethodName);
-                        classMapping.methodMap.put(key, newMethodName);
-                    }
-                }
-                i++;
-            }
-        }
+        this.resolver = resolver;
     }
 
     private String getString(Constant[] cp, int index) {
@@ -75,34 +41,23 @@ public class Remapper {
         return index;
     }
 
-    private String mapFieldName(String obfuscatedClassName, ClassMapping cm, String name) {
-        if (cm != null && cm.fieldMap.containsKey(name)) return cm.fieldMap.get(name);
-        if (!hierarchy.containsKey(obfuscatedClassName)) return null;
-        for (String parentName : hierarchy.get(obfuscatedClassName)) {
-            String tmp = mapFieldName(parentName, obfuscatedMappings.getOrDefault(parentName, null), name);
-            if (tmp != null) return tmp;
-        }
-        return null;
+    private String resolveField(String owner, String name) {
+        counters.lookup(resolver.getDepth(owner));
+        return resolver.mapFieldName(owner, name);
     }
 
-    private String mapMethodName(String obfuscatedClassName, ClassMapping cm, String name, String desc) {
-        ImmutablePair<String, String> nameAndType = new ImmutablePair<>(name, desc);
-        if (cm != null && cm.methodMap.containsKey(nameAndType)) return cm.methodMap.get(nameAndType);
-        if (!hierarchy.containsKey(obfuscatedClassName)) return null;
-        for (String parentName : hierarchy.get(obfuscatedClassName)) {
-            String tmp = mapMethodName(parentName, obfuscatedMappings.getOrDefault(parentName, null), name, desc);
-            if (tmp != null) return tmp;
-        }
-        return null;
+    private String resolveMethod(String owner, String name, String desc) {
+        counters.lookup(resolver.getDepth(owner));
+        return resolver.mapMethodName(owner, name, desc);
     }
 
     private String mapFieldName(String name) {
-        String tmp = mapFieldName(this.obfuscatedClassName, this.classMapping, name);
+        String tmp = resolveField(obfuscatedClassName, name);
         return tmp == null ? name : tmp;
     }
 
     private String mapMethodName(String name, String desc) {
-        String tmp = mapMethodName(this.obfuscatedClassName, this.classMapping, name, desc);
+        String tmp = resolveMethod(obfuscatedClassName, name, desc);
         return tmp == null ? name : tmp;
     }
 
@@ -133,7 +88,7 @@ public class Remapper {
                 String className = getString(originalConstants, cc.getNameIndex());
                 String originalClassName;
                 if (className.startsWith("[")) {
-                    originalClassName = Util.mapSignature(className, classNameMap);
+                    originalClassName = signatures.map(className);
                 } else {
                     originalClassName = mapClassName(className);
                 }
@@ -143,7 +98,7 @@ public class Remapper {
             } else if (c instanceof ConstantNameAndType) {
                 ConstantNameAndType cnt = (ConstantNameAndType) c;
                 String desc = cnt.getSignature(constantPool);
-                String mappedDesc = Util.mapSignature(desc, classNameMap);
+                String mappedDesc = signatures.map(desc);
                 cnt.setSignatureIndex(getStringIndex(stringIndexMap, mappedDesc, constants));
             }
         }
@@ -157,12 +112,12 @@ public class Remapper {
                 String memberName = cnt.getName(constantPool);
                 String mappedMemberName;
                 String desc = ((ConstantUtf8)constants.get(cnt.getSignatureIndex())).getBytes();
-                String mappedDesc = Util.mapSignature(desc, classNameMap);
+                String mappedDesc = signatures.map(desc);
                 String obfClassName = inverseClassNameMap.getOrDefault(className, className);
                 if (c instanceof ConstantFieldref) {
-                    mappedMemberName = mapFieldName(obfClassName, obfuscatedMappings.getOrDefault(obfClassName, null), memberName);
+                    mappedMemberName = resolveField(obfClassName, memberName);
                 } else {
-                    mappedMemberName = mapMethodName(obfClassName, obfuscatedMappings.getOrDefault(obfClassName, null), memberName, mappedDesc);
+                    mappedMemberName = resolveMethod(obfClassName, memberName, mappedDesc);
                 }
                 if (mappedMemberName == null) mappedMemberName = memberName;
                 if (!mappedMemberName.equals(memberName) || !mappedDesc.equals(desc)) {
@@ -183,7 +138,7 @@ public class Remapper {
             } else if (c instanceof ConstantMethodType) {
                 ConstantMethodType cmt = (ConstantMethodType) c;
                 String desc = getString(originalConstants, cmt.getDescriptorIndex());
-                String mappedDesc = Util.mapSignature(desc, classNameMap);
+                String mappedDesc = signatures.map(desc);
                 cmt.setDescriptorIndex(getStringIndex(stringIndexMap, mappedDesc, constants));
             }
         }
@@ -193,7 +148,7 @@ public class Remapper {
             if (attr instanceof Signature) {
                 Signature sigAttr = (Signature) attr;
                 String sig = sigAttr.getSignature();
-                String mappedSig = Util.mapSignature(sig, classNameMap);
+                String mappedSig = signatures.map(sig);
                 sigAttr.setSignatureIndex(getStringIndex(stringIndexMap, mappedSig, constants));
             } else if (attr instanceof InnerClasses) {
                 InnerClasses innerClasses = (InnerClasses) attr;
@@ -217,7 +172,7 @@ public class Remapper {
             String fieldName = field.getName();
             String desc = field.getType().getSignature();
             String mappedFieldName = mapFieldName(fieldName);
-            String mappedDesc = Util.mapSignature(desc, classNameMap);
+            String mappedDesc = signatures.map(desc);
             if (!mappedFieldName.equals(fieldName)) {
                 field.setNameIndex(getStringIndex(stringIndexMap, mappedFieldName, constants));
             }
@@ -228,7 +183,7 @@ public class Remapper {
             for (Attribute attr : attributes) {
                 if (attr instanceof Signature) {
                     Signature sigAttr = (Signature) attr;
-                    String mappedSig = Util.mapSignature(sigAttr.getSignature(), classNameMap);
+                    String mappedSig = signatures.map(sigAttr.getSignature());
                     sigAttr.setSignatureIndex(getStringIndex(stringIndexMap, mappedSig, constants));
                 }
             }
@@ -239,7 +194,7 @@ public class Remapper {
         for (Method method : methods) {
             String methodName = method.getName();
             String desc = method.getSignature();
-            String mappedDesc = Util.mapSignature(desc, classNameMap);
+            String mappedDesc = signatures.map(desc);
             String mappedMethodName = mapMethodName(methodName, mappedDesc);
             if (!mappedMethodName.equals(methodName)) {
                 method.setNameIndex(getStringIndex(stringIndexMap, mappedMethodName, constants));
@@ -265,7 +220,7 @@ public class Remapper {
                                     String newName = String.format("local%d_%d", method_id, lvid);
                                     lv.setNameIndex(getStringIndex(stringIndexMap, newName, constants));
                                 }
-                                String mappedDescLV = Util.mapSignature(lv.getSignature(), classNameMap);
+                                String mappedDescLV = signatures.map(lv.getSignature());
                                 lv.setSignatureIndex(getStringIndex(stringIndexMap, mappedDescLV, constants));
                                 lvid++;
                             }
@@ -274,7 +229,7 @@ public class Remapper {
                     code.setAttributes(modifiedCodeAttributes.toArray(new Attribute[0]));
                 } else if (attr instanceof Signature) {
                     Signature sigAttr = (Signature) attr;
-                    String mappedSig = Util.mapSignature(sigAttr.getSignature(), classNameMap);
+                    String mappedSig = signatures.map(sigAttr.getSignature());
                     sigAttr.setSignatureIndex(getStringIndex(stringIndexMap, mappedSig, constants));
                 }
             }
@@ -282,10 +237,21 @@ public class Remapper {
         }
 
         constantPool.setConstantPool(constants.toArray(new Constant[0]));
+        counters.addedConstants = constants.size() - originalConstants.length;
+    }
+
+    // '/'-separated name of the class, the original name after remap() has been called
+    String getClassName() {
+        Constant[] constants = jclass.getConstantPool().getConstantPool();
+        return getString(constants, ((ConstantClass) constants[jclass.getClassNameIndex()]).getNameIndex());
     }
 
-    void dump(String filePath) throws IOException {
-        jclass.dump(filePath);
+    byte[] dump() {
+        return jclass.getBytes();
+    }
+
+    RunReport.ClassCounters getCounters() {
+        return counters;
     }
 
     private String mapClassName(String className) {
@@ -296,18 +262,33 @@ public class Remapper {
     static class ClassMapping {
         final String obfuscatedName;
         final String originalName;
-        final Map<String, String> fieldMap = new HashMap<>();
-        final Map<ImmutablePair<String, String>, String> methodMap = new HashMap<>();
+        final SymbolTable symbols;
+        final LongMap<String> fieldMap = new LongMap<>(); // name ID -> original name
+        final LongMap<String> methodMap = new LongMap<>(); // SymbolTable.memberKey(name ID, descriptor ID) -> original name
 
-        ClassMapping(Mapping.ClassMapping cm) {
-            obfuscatedName = cm.obfuscatedName.replace('.', '/');
-            originalName = cm.originalName.replace('.', '/');
-            for (Mapping.FieldMapping fm : cm.fieldMappings) {
-                fieldMap.put(fm.obfuscatedName, fm.originalName);
-            }
-            for (Mapping.MethodMapping mm : cm.methodMappings) {
-                methodMap.put(new ImmutablePair<>(mm.obfuscatedName, mm.type), mm.originalName);
-            }
+        ClassMapping(String obfuscatedName, String originalName, SymbolTable symbols) {
+            this.obfuscatedName = obfuscatedName;
+            this.originalName = originalName;
+            this.symbols = symbols;
+        }
+
+        // copy with its own member maps, sharing the symbol table
+        ClassMapping(ClassMapping other) {
+            this(other.obfuscatedName, other.originalName, other.symbols);
+            fieldMap.putAll(other.fieldMap);
+            methodMap.putAll(other.methodMap);
+        }
+
+        String mapFieldName(String name) {
+            int nameId = symbols.get(name);
+            return nameId < 0 ? null : fieldMap.get(nameId);
+        }
+
+        String mapMethodName(String name, String desc) {
+            int nameId = symbols.get(name);
+            if (nameId < 0) return null;
+            int descId = symbols.get(desc);
+            return descId < 0 ? null : methodMap.get(SymbolTable.memberKey(nameId, descId));
         }
     }
 }
@@ -0,0 +1,65 @@
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Copies the non-class files of the input to the output on a pool of its own, in the background
+ * while the classes are remapped. Client jars carry thousands of assets, so copying them on the
+ * thread that scans the input would hold up everything after it. Copying is I/O bound, so a few
+ * threads are enough and they do not take CPU from the remapping workers.
+ */
+public class ResourceCopier {
+    private static final int THREADS = 4;
+
+    private final Output output;
+    private final boolean link; // hard link files of an input directory instead of copying them
+    private final RunReport report;
+    private Thread thread;
+    private WorkPool.Stats stats;
+    private volatile Throwable error;
+
+    public ResourceCopier(Output output, boolean link, RunReport report) {
+        this.output = output;
+        this.link = link;
+        this.report = report;
+    }
+
+    /** Starts copying the files and returns at once. */
+    public void start(List<Input.Entry> entries) {
+        RunReport.Stage stage = report.begin("copy");
+        thread = new Thread(() -> {
+            try (WorkPool pool = new WorkPool(THREADS)) {
+                stats = pool.run("copy", entries, Input.Entry::getSize, entry -> {
+                    if (link) {
+                        output.link(entry);
+                    } else {
+                        output.copy(entry);
+                    }
+                });
+                stage.end(stats);
+            } catch (IOException | InterruptedException | RuntimeException e) {
+                error = e;
+            }
+        }, "copy");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Waits until all files are copied and prints the timings. Rethrows the first failure. */
+    public void finish() throws IOException, InterruptedException {
+        thread.join();
+        if (error instanceof IOException) throw (IOException) error;
+        if (error instanceof InterruptedException) throw (InterruptedException) error;
+        if (error instanceof RuntimeException) throw (RuntimeException) error;
+        System.err.printf("copied %d files\n", stats.count);
+        stats.print();
+    }
+
+    /** Waits for the copy to stop after another failure, so the output can be closed. */
+    public void abandon() {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,400 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of one run: wall time, CPU time, items and size of every stage, the utilization of
+ * each worker thread, counters summed over all remapped classes, the slowest classes and cache
+ * hit rates, and the garbage collections during the run and the peak resident memory of the
+ * process, which in daemon and batch mode includes earlier jobs. The size of a stage is the size its items are scheduled by, which is the size of
+ * the class files except for the "conflicts" stage (members) and the "index" stage (classes).
+ *
+ * Stages are also recorded as JFR events, and so are classes that take long to remap, if the
+ * JVM supports JFR (see {@link EventRecorder}). With {@code --report} the report is
+ * written as JSON. Safe to use from multiple threads.
+ */
+public class RunReport {
+    private static final int SLOWEST_CLASSES = 10;
+    private static final EventRecorder EVENTS = EventRecorder.get();
+
+    /** Counters of one remapped class, filled in by the remapping engine. */
+    public static class ClassCounters {
+        public int addedConstants;
+        public int lookups; // of member names through the hierarchy
+        public long lookupDepth; // sum over all lookups
+        public int maxLookupDepth;
+
+        void lookup(int depth) {
+            lookups++;
+            lookupDepth += depth;
+            if (depth > maxLookupDepth) maxLookupDepth = depth;
+        }
+    }
+
+    /** A stage that is being measured, ended by one of the {@code end} methods. */
+    public class Stage {
+        final String name;
+        final long start = System.nanoTime();
+        final long startCpu = WorkPool.cpuTime();
+        private final Object event;
+        long wallNanos;
+        long cpuNanos;
+        long items;
+        long size;
+        WorkPool.Stats threads;
+
+        Stage(String name) {
+            this.name = name;
+            event = EVENTS != null ? EVENTS.beginStage() : null;
+        }
+
+        /** Ends a stage that ran on the calling thread. */
+        public void end(long items, long size) {
+            wallNanos = System.nanoTime() - start;
+            cpuNanos = WorkPool.cpuTime() - startCpu;
+            this.items = items;
+            this.size = size;
+            finish();
+        }
+
+        /** Ends a stage that ran on worker threads. */
+        public void end(WorkPool.Stats stats) {
+            wallNanos = stats.wallNanos;
+            for (long cpu : stats.cpuNanos) {
+                cpuNanos += cpu;
+            }
+            items = stats.count;
+            size = stats.size;
+            threads = stats;
+            finish();
+        }
+
+        private void finish() {
+            if (event != null) EVENTS.commitStage(event, name, items, size, cpuNanos);
+            synchronized (stages) {
+                stages.add(this);
+            }
+        }
+    }
+
+    private static class SlowClass {
+        final String name;
+        final long size;
+        final long nanos;
+
+        SlowClass(String name, long size, long nanos) {
+            this.name = name;
+            this.size = size;
+            this.nanos = nanos;
+        }
+    }
+
+    private final long start = System.nanoTime();
+    private final long[] startGc = gcTotals();
+    private final Map<String, Object> properties = new LinkedHashMap<>();
+    private final List<Stage> stages = new ArrayList<>();
+
+    private final LongAdder classes = new LongAdder();
+    private final LongAdder reusedClasses = new LongAdder();
+    private final LongAdder reusedBytes = new LongAdder();
+    private final LongAdder passedThrough = new LongAdder();
+    private final LongAdder passedThroughBytes = new LongAdder();
+    private final LongAdder inputBytes = new LongAdder();
+    private final LongAdder outputBytes = new LongAdder();
+    private final LongAdder remapNanos = new LongAdder();
+    private final LongAdder writeNanos = new LongAdder();
+    private final LongAdder addedConstants = new LongAdder();
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder lookupDepth = new LongAdder();
+    private final LongAccumulator maxLookupDepth = new LongAccumulator(Math::max, 0);
+    private final PriorityQueue<SlowClass> slowest = new PriorityQueue<>(Comparator.comparingLong(c -> c.nanos));
+
+    // collection count and time in milliseconds of all collectors since the JVM started
+    private static long[] gcTotals() {
+        long[] totals = new long[2];
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            totals[0] += Math.max(0, gc.getCollectionCount());
+            totals[1] += Math.max(0, gc.getCollectionTime());
+        }
+        return totals;
+    }
+
+    // the peak resident set size of the process in bytes, or -1 where /proc does not tell
+    private static long peakRss() {
+        Path status = Paths.get("/proc/self/status");
+        if (!Files.isReadable(status)) return -1;
+        try (BufferedReader reader = Files.newBufferedReader(status, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // "VmHWM:    123456 kB"
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.substring(6).trim().split("\\s+")[0]) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // fall through
+        }
+        return -1;
+    }
+
+    /** Starts measuring a stage. */
+    public Stage begin(String name) {
+        return new Stage(name);
+    }
+
+    /** Sets a top-level entry of the report: a string, number, boolean, map or list. */
+    public void put(String key, Object value) {
+        synchronized (properties) {
+            properties.put(key, value);
+        }
+    }
+
+    /** To be called right before a class is remapped; pass the result to {@link #classDone}. */
+    public Object classStarted() {
+        return EVENTS != null ? EVENTS.beginClass() : null;
+    }
+
+    /**
+     * Records a class that has been remapped. {@code className} is the original name, the sizes
+     * are those of the input and output class files.
+     */
+    public void classDone(Object event, String className, long inputSize, long outputSize, long remapNanos,
+                          ClassCounters counters) {
+        if (event != null) EVENTS.commitClass(event, className, inputSize, counters.addedConstants);
+        classes.increment();
+        inputBytes.add(inputSize);
+        outputBytes.add(outputSize);
+        this.remapNanos.add(remapNanos);
+        addedConstants.add(counters.addedConstants);
+        lookups.add(counters.lookups);
+        lookupDepth.add(counters.lookupDepth);
+        maxLookupDepth.accumulate(counters.maxLookupDepth);
+        synchronized (slowest) {
+            if (slowest.size() < SLOWEST_CLASSES || remapNanos > slowest.peek().nanos) {
+                slowest.add(new SlowClass(className, inputSize, remapNanos));
+                if (slowest.size() > SLOWEST_CLASSES) slowest.poll();
+            }
+        }
+    }
+
+    /** Records a class whose output was taken from the class cache of a batch instead of being remapped. */
+    public void classReused(long inputSize) {
+        reusedClasses.increment();
+        reusedBytes.add(inputSize);
+    }
+
+    /** Records a class that was copied unchanged because it refers to nothing that is remapped. */
+    public void classPassedThrough(long size) {
+        passedThrough.increment();
+        passedThroughBytes.add(size);
+    }
+
+    /** Records the time taken to write a remapped class to the output. */
+    public void classWritten(long writeNanos) {
+        this.writeNanos.add(writeNanos);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static double perSecond(long n, long nanos) {
+        return nanos == 0 ? 0.0 : n * 1e9 / nanos;
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        synchronized (properties) {
+            report.putAll(properties);
+        }
+        report.put("wallMs", millis(System.nanoTime() - start));
+
+        List<Object> stageList = new ArrayList<>();
+        synchronized (stages) {
+            for (Stage stage : stages) {
+                Map<String, Object> s = new LinkedHashMap<>();
+                s.put("name", stage.name);
+                s.put("wallMs", millis(stage.wallNanos));
+                s.put("cpuMs", millis(stage.cpuNanos));
+                s.put("items", stage.items);
+                s.put("size", stage.size);
+                s.put("itemsPerSecond", perSecond(stage.items, stage.wallNanos));
+                s.put("sizePerSecond", perSecond(stage.size, stage.wallNanos));
+                if (stage.threads != null) {
+                    WorkPool.Stats stats = stage.threads;
+                    List<Object> threads = new ArrayList<>();
+                    long busy = 0;
+                    for (int i = 0; i < stats.busyNanos.length; i++) {
+                        Map<String, Object> t = new LinkedHashMap<>();
+                        t.put("items", stats.items[i]);
+                        t.put("busyMs", millis(stats.busyNanos[i]));
+                        t.put("cpuMs", millis(stats.cpuNanos[i]));
+                        t.put("utilization", stats.wallNanos == 0 ? 0.0 : (double) stats.busyNanos[i] / stats.wallNanos);
+                        threads.add(t);
+                        busy += stats.busyNanos[i];
+                    }
+                    s.put("utilization", stats.wallNanos == 0 ? 0.0 : (double) busy / stats.wallNanos / stats.busyNanos.length);
+                    s.put("threads", threads);
+                }
+                stageList.add(s);
+            }
+        }
+        report.put("stages", stageList);
+
+        Map<String, Object> c = new LinkedHashMap<>();
+        long n = classes.sum();
+        c.put("count", n);
+        c.put("inputBytes", inputBytes.sum());
+        c.put("outputBytes", outputBytes.sum());
+        c.put("remapMs", millis(remapNanos.sum()));
+        c.put("writeMs", millis(writeNanos.sum()));
+        c.put("constantsAdded", addedConstants.sum());
+        c.put("lookups", lookups.sum());
+        c.put("meanLookupDepth", lookups.sum() == 0 ? 0.0 : (double) lookupDepth.sum() / lookups.sum());
+        c.put("maxLookupDepth", maxLookupDepth.get());
+        c.put("reused", reusedClasses.sum());
+        c.put("reusedInputBytes", reusedBytes.sum());
+        c.put("passedThrough", passedThrough.sum());
+        c.put("passedThroughBytes", passedThroughBytes.sum());
+        report.put("classes", c);
+
+        List<SlowClass> slow;
+        synchronized (slowest) {
+            slow = new ArrayList<>(slowest);
+        }
+        slow.sort(Comparator.comparingLong((SlowClass s) -> s.nanos).reversed());
+        List<Object> slowList = new ArrayList<>();
+        for (SlowClass s : slow) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("name", s.name);
+            m.put("size", s.size);
+            m.put("ms", millis(s.nanos));
+            slowList.add(m);
+        }
+        report.put("slowestClasses", slowList);
+
+        Map<String, Object> jvm = new LinkedHashMap<>();
+        long[] gc = gcTotals();
+        jvm.put("gcCount", gc[0] - startGc[0]);
+        jvm.put("gcMs", gc[1] - startGc[1]);
+        jvm.put("maxHeapBytes", Runtime.getRuntime().maxMemory());
+        long rss = peakRss();
+        if (rss >= 0) jvm.put("peakRssBytes", rss);
+        report.put("jvm", jvm);
+        return report;
+    }
+
+    public String toJson() {
+        StringBuilder sb = new StringBuilder();
+        appendJson(sb, toMap(), "");
+        sb.append('\n');
+        return sb.toString();
+    }
+
+    /** Returns the reports of several jobs as one JSON object with a list of reports. */
+    public static String toJson(List<RunReport> reports) {
+        List<Object> list = new ArrayList<>();
+        for (RunReport report : reports) {
+            list.add(report.toMap());
+        }
+        StringBuilder sb = new StringBuilder();
+        appendJson(sb, Collections.singletonMap("jobs", list), "");
+        sb.append('\n');
+        return sb.toString();
+    }
+
+    /** Writes JSON as returned by {@link #toJson}. */
+    public static void write(String filePath, String json) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(Paths.get(filePath), StandardCharsets.UTF_8)) {
+            writer.write(json);
+        }
+    }
+
+    /** Returns one line per stage with its wall and CPU time. */
+    public String summary() {
+        StringBuilder sb = new StringBuilder();
+        synchronized (stages) {
+            for (Stage stage : stages) {
+                sb.append(String.format("%s: %dms wall, %dms cpu, %d items\n", stage.name, stage.wallNanos / 1000000,
+                        stage.cpuNanos / 1000000, stage.items));
+            }
+        }
+        if (passedThrough.sum() > 0) {
+            sb.append(String.format("passed through: %d classes\n", passedThrough.sum()));
+        }
+        if (reusedClasses.sum() > 0) {
+            sb.append(String.format("reused: %d classes\n", reusedClasses.sum()));
+        }
+        sb.append(String.format("total: %dms\n", (System.nanoTime() - start) / 1000000));
+        return sb.toString();
+    }
+
+    private static void appendJson(StringBuilder sb, Object value, String indent) {
+        if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            if (map.isEmpty()) {
+                sb.append("{}");
+                return;
+            }
+            String inner = indent + "  ";
+            sb.append("{\n");
+            Iterator<? extends Map.Entry<?, ?>> it = map.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<?, ?> entry = it.next();
+                sb.append(inner);
+                appendString(sb, entry.getKey().toString());
+                sb.append(": ");
+                appendJson(sb, entry.getValue(), inner);
+                sb.append(it.hasNext() ? ",\n" : "\n");
+            }
+            sb.append(indent).append('}');
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            if (list.isEmpty()) {
+                sb.append("[]");
+                return;
+            }
+            String inner = indent + "  ";
+            sb.append("[\n");
+            for (int i = 0; i < list.size(); i++) {
+                sb.append(inner);
+                appendJson(sb, list.get(i), inner);
+                sb.append(i < list.size() - 1 ? ",\n" : "\n");
+            }
+            sb.append(indent).append(']');
+        } else if (value instanceof Double) {
+            double d = (Double) value;
+            sb.append(Double.isFinite(d) ? String.format(Locale.ROOT, "%.3f", d) : "null");
+        } else if (value instanceof Number || value instanceof Boolean) {
+            sb.append(value);
+        } else if (value == null) {
+            sb.append("null");
+        } else {
+            appendString(sb, value.toString());
+        }
+    }
+
+    private static void appendString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+}
@@ -0,0 +1,261 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Maps class names in descriptors and generic signatures (JVMS 4.3 and 4.7.9.1) from obfuscated
+ * to original names. The input is parsed by the grammar, so type variables, type parameter names
+ * and inner class segments after '.' are told apart from class names. If no class in the input is
+ * mapped, the input instance itself is returned and nothing is allocated.
+ *
+ * Results are kept in a cache shared by all threads, which stops growing at a fixed number of
+ * entries.
+ */
+public class SignatureMapper {
+    public static final int DEFAULT_CACHE_SIZE = 1 << 18;
+
+    // obfuscated -> original class names, looked up by a range of a string
+    private final String[] keys;
+    private final String[] values;
+    private final int mask;
+
+    private final ConcurrentHashMap<String, String> cache;
+    private final int maxCacheSize;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public SignatureMapper(Map<String, String> classNameMap, int maxCacheSize) {
+        int capacity = Integer.highestOneBit(Math.max(classNameMap.size() * 2 - 1, 4)) << 1;
+        keys = new String[capacity];
+        values = new String[capacity];
+        mask = capacity - 1;
+        classNameMap.forEach((k, v) -> {
+            int i = hash(k, 0, k.length()) & mask;
+            while (keys[i] != null) i = (i + 1) & mask;
+            keys[i] = k;
+            values[i] = v;
+        });
+        this.maxCacheSize = maxCacheSize;
+        cache = new ConcurrentHashMap<>(Math.min(maxCacheSize, 1 << 12));
+    }
+
+    private static int hash(String s, int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; i++) {
+            h = 31 * h + s.charAt(i);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    // returns the original name of the class named by s[from, to), or null
+    private String lookup(String s, int from, int to) {
+        for (int i = hash(s, from, to) & mask; ; i = (i + 1) & mask) {
+            String k = keys[i];
+            if (k == null) return null;
+            if (k.length() == to - from && k.regionMatches(0, s, from, to - from)) return values[i];
+        }
+    }
+
+    /** Returns the original name of a class, or the name itself if it is not mapped. */
+    public String mapClassName(String className) {
+        String mapped = lookup(className, 0, className.length());
+        return mapped == null ? className : mapped;
+    }
+
+    public String map(String sig) {
+        if (sig.indexOf('L') < 0) return sig; // only primitive types
+        if (maxCacheSize == 0) return new Rewriter(sig).rewrite();
+        String mapped = cache.get(sig);
+        if (mapped != null) {
+            hits.increment();
+            return mapped;
+        }
+        misses.increment();
+        mapped = new Rewriter(sig).rewrite();
+        if (cache.size() < maxCacheSize) {
+            cache.putIfAbsent(sig, mapped);
+        }
+        return mapped;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int getCacheEntries() {
+        return cache.size();
+    }
+
+    public void printStats() {
+        long h = getHits(), m = getMisses();
+        System.err.printf("signature cache: %d lookups, %.1f%% hits, %d entries\n", h + m, h + m == 0 ? 0.0 : 100.0 * h / (h + m), cache.size());
+    }
+
+    /** Rewrites one string. The output buffer is only created once a class name changes. */
+    private class Rewriter {
+        private final String sig;
+        private int pos;
+        private StringBuilder sb;
+        private int copied; // sig[0, copied) has been appended to sb
+
+        Rewriter(String sig) {
+            this.sig = sig;
+        }
+
+        String rewrite() {
+            try {
+                if (peek() == '<') typeParameters();
+                if (peek() == '(') {
+                    methodSignature();
+                } else {
+                    // field descriptor, array class name or class signature
+                    while (pos < sig.length()) {
+                        javaType();
+                    }
+                }
+            } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+                // not a valid signature, leave it alone
+                return sig;
+            }
+            if (sb == null) return sig;
+            sb.append(sig, copied, sig.length());
+            return sb.toString();
+        }
+
+        private char peek() {
+            return pos < sig.length() ? sig.charAt(pos) : '\0';
+        }
+
+        private void expect(char c) {
+            if (sig.charAt(pos) != c) throw new IllegalArgumentException();
+            pos++;
+        }
+
+        private void replace(int from, int to, String replacement) {
+            if (sb == null) sb = new StringBuilder(sig.length() + 32);
+            sb.append(sig, copied, from).append(replacement);
+            copied = to;
+        }
+
+        // <T:Ljava/lang/Object;U::Ljava/lang/Comparable<TU;>;>
+        private void typeParameters() {
+            expect('<');
+            while (peek() != '>') {
+                int colon = sig.indexOf(':', pos);
+                if (colon <= pos) throw new IllegalArgumentException();
+                pos = colon;
+                while (peek() == ':') {
+                    pos++;
+                    if (peek() != ':' && peek() != '>') referenceType();
+                }
+            }
+            pos++;
+        }
+
+        private void methodSignature() {
+            expect('(');
+            while (peek() != ')') {
+                javaType();
+            }
+            pos++;
+            javaType(); // return type, may be V
+            while (peek() == '^') {
+                pos++;
+                referenceType();
+            }
+        }
+
+        private void javaType() {
+            switch (sig.charAt(pos)) {
+                case 'B': case 'C': case 'D': case 'F': case 'I': case 'J': case 'S': case 'Z': case 'V':
+                    pos++;
+                    break;
+                default:
+                    referenceType();
+            }
+        }
+
+        private void referenceType() {
+            switch (sig.charAt(pos)) {
+                case 'L':
+                    classType();
+                    break;
+                case 'T': {
+                    int end = sig.indexOf(';', pos);
+                    if (end < 0) throw new IllegalArgumentException();
+                    pos = end + 1;
+                    break;
+                }
+                case '[':
+                    pos++;
+                    javaType();
+                    break;
+                default:
+                    throw new IllegalArgumentException();
+            }
+        }
+
+        // Lpkg/Outer<TT;>.Inner<TU;>;
+        private void classType() {
+            expect('L');
+            int start = pos;
+            while (true) {
+                char c = sig.charAt(pos);
+                if (c == ';' || c == '<' || c == '.') break;
+                pos++;
+            }
+            int end = pos;
+            String mapped = lookup(sig, start, end);
+            if (mapped != null) replace(start, end, mapped);
+            // inner classes are named relative to their outer class, whose full names are
+            // tracked to look them up
+            String outer = null;
+            String mappedOuter = null;
+            while (true) {
+                if (peek() == '<') typeArguments();
+                if (peek() == ';') {
+                    pos++;
+                    return;
+                }
+                expect('.');
+                if (outer == null) {
+                    outer = sig.substring(start, end);
+                    mappedOuter = mapped == null ? outer : mapped;
+                }
+                int innerStart = pos;
+                while (true) {
+                    char c = sig.charAt(pos);
+                    if (c == ';' || c == '<' || c == '.') break;
+                    pos++;
+                }
+                String simpleName = sig.substring(innerStart, pos);
+                outer = outer + '$' + simpleName;
+                String mappedInner = lookup(outer, 0, outer.length());
+                if (mappedInner != null && mappedInner.startsWith(mappedOuter + '$')) {
+                    String mappedSimpleName = mappedInner.substring(mappedOuter.length() + 1);
+                    if (!mappedSimpleName.equals(simpleName)) replace(innerStart, pos, mappedSimpleName);
+                }
+                mappedOuter = mappedInner == null ? mappedOuter + '$' + simpleName : mappedInner;
+            }
+        }
+
+        // <TT;*+Ljava/lang/Number;>
+        private void typeArguments() {
+            expect('<');
+            while (peek() != '>') {
+                char c = peek();
+                if (c == '*') {
+                    pos++;
+                    continue;
+                }
+                if (c == '+' || c == '-') pos++;
+                referenceType();
+            }
+            pos++;
+        }
+    }
+}
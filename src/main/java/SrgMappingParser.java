@@ -1,80 +1,116 @@
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.IOException;
-import java.util.*;
-
-public class SrgMappingParser implements MappingParser {
-    BufferedReader reader;
-    String currentLine;
-    int currentLineNo;
-    public SrgMappingParser(String filePath) throws IOException {
-        reader = new BufferedReader(new FileReader(filePath));
-        readLine();
-    }
-    private void readLine() throws IOException {
-        currentLine = reader.readLine();
-        currentLineNo++;
-    }
-    @Override
-    public List<Mapping.ClassMapping> parse() throws IOException, InvalidInputException {
-        Map<String, Mapping.ClassMapping> classMappings = new HashMap<>();
-        while (currentLine != null) {
-            if (currentLine.startsWith("PK: ")) {
-                // do nothing
-            } else if (currentLine.startsWith("CL: ")) {
-                String[] f = currentLine.split(" ");
-                if (f.length != 3) throw new InvalidInputException(currentLineNo, "wrong number of fields");
-                String obfName = f[1];
-                String deobfName = f[2];
-                classMappings.put(obfName, new Mapping.ClassMapping(deobfName, obfName, new ArrayList<>(), new ArrayList<>()));
-            } else if (currentLine.startsWith("FD: ")) {
-                String[] f = currentLine.split(" ");
-                if (f.length != 3) throw new InvalidInputException(currentLineNo, "wrong number of fields");
-                String f1 = f[1];
-                String f2 = f[2];
-                int i = f1.lastIndexOf('/');
-                if (i<0) throw new InvalidInputException(currentLineNo, "invalid syntax");
-                String obfClassName = f1.substring(0, i);
-                String obfFieldName = f1.substring(i + 1);
-                i = f2.lastIndexOf('/');
-                if (i<0) throw new InvalidInputException(currentLineNo, "invalid syntax");
-                String deobfClassName = f2.substring(0, i);
-                String deobfFieldName = f2.substring(i+1);
-                Mapping.ClassMapping cm = classMappings.get(obfClassName);
-                if (cm == null) {
-                    throw new InvalidInputException(currentLineNo, "class "+obfClassName+" is not declared");
-                }
-                if (!cm.originalName.equals(deobfClassName)) {
-                    throw new InvalidInputException(currentLineNo, String.format("deobfuscated class names do not match (%s,%s)", cm.originalName, deobfClassName));
-                }
-                cm.fieldMappings.add(new Mapping.FieldMapping(deobfFieldName, obfFieldName, ""));
-            } else if (currentLine.startsWith("MD: ")) {
-                String[] f = currentLine.split(" ");
-                if (f.length != 5) {
-                    throw new InvalidInputException(currentLineNo, "wrong number of fields");
-                }
-                String f1 = f[1];
-                String f3 = f[3];
-                String deobfDesc = f[4];
-                int i = f1.lastIndexOf('/');
-                String obfClassName = f1.substring(0, i);
-                String obfMethodName = f1.substring(i+1);
-                i = f3.lastIndexOf('/');
-                String deobfClassName = f3.substring(0, i);
-                String deobfMethodName = f3.substring(i+1);
-                Mapping.ClassMapping cm = classMappings.get(obfClassName);
-                if (cm == null) {
-                    throw new InvalidInputException(currentLineNo, "class "+obfClassName+" is not declared");
-                }
-                if (!cm.originalName.equals(deobfClassName)) {
-                    throw new InvalidInputException(currentLineNo, String.format("deobfuscated class names do not match (%s,%s)", cm.originalName, deobfClassName));
-                }
-                cm.methodMappings.add(new Mapping.MethodMapping(deobfMethodName, obfMethodName, deobfDesc));
-            } else {
-                System.err.println("skipping invalid line: "+currentLine);
-            }
-            readLine();
-        }
-        return new ArrayList<>(classMappings.values());
-    }
-}
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.*;
+
+public class SrgMappingParser implements MappingParser {
+    private final String filePath;
+    BufferedReader reader; // open during accept()
+    String currentLine;
+    int currentLineNo;
+    // start and end of the fields of the current line, separated with single spaces
+    private final int[] fieldStart = new int[5];
+    private final int[] fieldEnd = new int[5];
+
+    public SrgMappingParser(String filePath) {
+        this.filePath = filePath;
+    }
+    private void readLine() throws IOException {
+        currentLine = reader.readLine();
+        currentLineNo++;
+    }
+    // same field count as String.split(" "), which drops trailing empty fields
+    private void splitFields(int expected) throws InvalidInputException {
+        String line = currentLine;
+        int end = line.length();
+        while (end > 0 && line.charAt(end - 1) == ' ') end--;
+        int n = 0, start = 0;
+        while (true) {
+            int i = line.indexOf(' ', start);
+            if (i < 0 || i >= end) i = end;
+            if (n == expected) throw new InvalidInputException(currentLineNo, "wrong number of fields");
+            fieldStart[n] = start;
+            fieldEnd[n] = i;
+            n++;
+            if (i == end) break;
+            start = i + 1;
+        }
+        if (n != expected) throw new InvalidInputException(currentLineNo, "wrong number of fields");
+    }
+    private String field(int i) {
+        return currentLine.substring(fieldStart[i], fieldEnd[i]);
+    }
+    // index of the '/' between class name and member name in field i
+    private int memberSeparator(int i) throws InvalidInputException {
+        int j = currentLine.lastIndexOf('/', fieldEnd[i] - 1);
+        if (j < fieldStart[i]) throw new InvalidInputException(currentLineNo, "invalid syntax");
+        return j;
+    }
+    private void checkClass(Map<String, String> classNames, String obfClassName, String deobfClassName) throws InvalidInputException {
+        String declared = classNames.get(obfClassName);
+        if (declared == null) {
+            throw new InvalidInputException(currentLineNo, "class "+obfClassName+" is not declared");
+        }
+        if (!declared.equals(deobfClassName)) {
+            throw new InvalidInputException(currentLineNo, String.format("deobfuscated class names do not match (%s,%s)", declared, deobfClassName));
+        }
+    }
+    @Override
+    public void accept(MappingVisitor visitor) throws IOException, InvalidInputException {
+        try (BufferedReader in = new BufferedReader(new FileReader(filePath))) {
+            reader = in;
+            currentLineNo = 0;
+            readLine();
+            // obfuscated -> deobfuscated class names; members are passed to the visitor right after
+            // their class, so the visitor is told again which class they belong to when it changes
+            Map<String, String> classNames = new HashMap<>();
+            String currentClass = null;
+            while (currentLine != null) {
+                if (currentLine.startsWith("PK: ")) {
+                    // do nothing
+                } else if (currentLine.startsWith("CL: ")) {
+                    splitFields(3);
+                    String obfName = field(1);
+                    String deobfName = field(2);
+                    classNames.put(obfName, deobfName);
+                    visitor.visitClass(obfName, deobfName);
+                    currentClass = obfName;
+                } else if (currentLine.startsWith("FD: ")) {
+                    splitFields(3);
+                    int i = memberSeparator(1);
+                    String obfClassName = currentLine.substring(fieldStart[1], i);
+                    String obfFieldName = currentLine.substring(i + 1, fieldEnd[1]);
+                    i = memberSeparator(2);
+                    String deobfClassName = currentLine.substring(fieldStart[2], i);
+                    String deobfFieldName = currentLine.substring(i + 1, fieldEnd[2]);
+                    checkClass(classNames, obfClassName, deobfClassName);
+                    if (!obfClassName.equals(currentClass)) {
+                        visitor.visitClass(obfClassName, deobfClassName);
+                        currentClass = obfClassName;
+                    }
+                    visitor.visitField(obfFieldName, deobfFieldName);
+                } else if (currentLine.startsWith("MD: ")) {
+                    splitFields(5);
+                    int i = memberSeparator(1);
+                    String obfClassName = currentLine.substring(fieldStart[1], i);
+                    String obfMethodName = currentLine.substring(i + 1, fieldEnd[1]);
+                    i = memberSeparator(3);
+                    String deobfClassName = currentLine.substring(fieldStart[3], i);
+                    String deobfMethodName = currentLine.substring(i + 1, fieldEnd[3]);
+                    checkClass(classNames, obfClassName, deobfClassName);
+                    if (!obfClassName.equals(currentClass)) {
+                        visitor.visitClass(obfClassName, deobfClassName);
+                        currentClass = obfClassName;
+                    }
+                    visitor.visitMethod(obfMethodName, deobfMethodName, field(4), false);
+                } else {
+                    System.err.println("skipping invalid line: "+currentLine);
+                }
+                readLine();
+            }
+            visitor.visitEnd();
+        } finally {
+            reader = null;
+        }
+    }
+}
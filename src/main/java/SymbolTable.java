@@ -0,0 +1,53 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns member names and descriptors of the obfuscation mapping as int IDs, so member maps can
+ * be keyed by a primitive long made from a name ID and a descriptor ID. Thread-safe; looking up
+ * an ID does not allocate.
+ */
+public class SymbolTable {
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final List<String> symbols = new ArrayList<>();
+
+    /** Returns the ID of {@code s}, or -1 if it has not been interned. */
+    public int get(String s) {
+        Integer id = ids.get(s);
+        return id == null ? -1 : id;
+    }
+
+    public int intern(String s) {
+        Integer id = ids.get(s);
+        if (id != null) return id;
+        synchronized (this) {
+            id = ids.get(s);
+            if (id == null) {
+                id = symbols.size();
+                symbols.add(s);
+                ids.put(s, id);
+            }
+            return id;
+        }
+    }
+
+    public synchronized String getSymbol(int id) {
+        return symbols.get(id);
+    }
+
+    public synchronized int size() {
+        return symbols.size();
+    }
+
+    public static long memberKey(int nameId, int descId) {
+        return (long) nameId << 32 | descId & 0xffffffffL;
+    }
+
+    public static int nameId(long memberKey) {
+        return (int) (memberKey >>> 32);
+    }
+
+    public static int descId(long memberKey) {
+        return (int) memberKey;
+    }
+}
@@ -0,0 +1,105 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parser for Tiny v2 files, as used by Fabric:
+ * <pre>
+ * tiny	2	0	official	intermediary	named
+ * c	a	net/minecraft/class_1	net/minecraft/Foo
+ * 	f	I	a	field_1	count
+ * 	m	(La;)V	a	method_1	add
+ * </pre>
+ * Lines are tab-separated and member lines are indented with one tab. Descriptors are in the first
+ * namespace, so the source namespace must be the first one. An empty name in the target namespace
+ * means the member keeps its source name. Parameters, local variables and comments are ignored.
+ */
+public class TinyMappingParser implements MappingParser {
+    private final String filePath;
+    BufferedReader reader; // open during accept()
+    String currentLine;
+    int currentLineNo;
+    private final String from;
+    private final String to;
+    private final List<String> fields = new ArrayList<>();
+
+    /** from and to are namespace names; null means the first and the last namespace. */
+    public TinyMappingParser(String filePath, String from, String to) {
+        this.filePath = filePath;
+        this.from = from;
+        this.to = to;
+    }
+    private void readLine() throws IOException {
+        currentLine = reader.readLine();
+        currentLineNo++;
+    }
+    // splits the current line at tabs after skipping the indentation; returns the indentation depth
+    private int splitFields() {
+        String line = currentLine;
+        fields.clear();
+        int depth = 0;
+        while (depth < line.length() && line.charAt(depth) == '\t') depth++;
+        int i = depth;
+        while (true) {
+            int j = line.indexOf('\t', i);
+            if (j < 0) {
+                fields.add(line.substring(i));
+                return depth;
+            }
+            fields.add(line.substring(i, j));
+            i = j + 1;
+        }
+    }
+    private String name(int index, String fallback) throws InvalidInputException {
+        if (index >= fields.size()) throw new InvalidInputException(currentLineNo, "wrong number of fields");
+        String s = fields.get(index);
+        if (!s.isEmpty()) return s;
+        if (fallback == null) throw new InvalidInputException(currentLineNo, "missing name");
+        return fallback;
+    }
+    @Override
+    public void accept(MappingVisitor visitor) throws IOException, InvalidInputException {
+        try (BufferedReader in = new BufferedReader(new FileReader(filePath))) {
+            reader = in;
+            currentLineNo = 0;
+            readLine();
+            if (currentLine == null) throw new InvalidInputException(currentLineNo, "empty file");
+            splitFields();
+            if (fields.size() < 5 || !fields.get(0).equals("tiny") || !fields.get(1).equals("2")) {
+                throw new InvalidInputException(currentLineNo, "not a Tiny v2 file");
+            }
+            List<String> namespaces = new ArrayList<>(fields.subList(3, fields.size()));
+            int src = from == null ? 0 : namespaces.indexOf(from);
+            int dst = to == null ? namespaces.size() - 1 : namespaces.indexOf(to);
+            if (src < 0 || dst < 0) {
+                throw new InvalidInputException(currentLineNo, "namespace not found, available: " + String.join(", ", namespaces));
+            }
+            if (src != 0) {
+                throw new InvalidInputException(currentLineNo, "descriptors are in namespace " + namespaces.get(0) + ", which must be the source namespace");
+            }
+            readLine();
+            boolean inClass = false;
+            while (currentLine != null) {
+                int depth = splitFields();
+                String kind = fields.get(0);
+                if (depth == 0 && kind.equals("c")) {
+                    String obfName = name(1 + src, null);
+                    visitor.visitClass(obfName, name(1 + dst, obfName));
+                    inClass = true;
+                } else if (depth == 1 && inClass && kind.equals("f")) {
+                    String obfName = name(2 + src, null);
+                    visitor.visitField(obfName, name(2 + dst, obfName));
+                } else if (depth == 1 && inClass && kind.equals("m")) {
+                    String obfName = name(2 + src, null);
+                    visitor.visitMethod(obfName, name(2 + dst, obfName), fields.get(1), true);
+                }
+                readLine();
+            }
+            visitor.visitEnd();
+        } finally {
+            reader = null;
+        }
+    }
+}
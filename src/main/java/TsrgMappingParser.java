@@ -0,0 +1,95 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Parser for TSRG files. Version 1:
+ * <pre>
+ * obf/Class deobf/Class
+ * \tobfField deobfField
+ * \tobfMethod (Lobf/Desc;)V deobfMethod
+ * </pre>
+ * Version 2 starts with a {@code tsrg2 namespace...} header and has a name for every namespace;
+ * the first namespace is mapped to the last one. Package lines and parameter lines are ignored.
+ * Method descriptors are in obfuscated names.
+ */
+public class TsrgMappingParser implements MappingParser {
+    private final String filePath;
+    BufferedReader reader; // open during accept()
+    String currentLine;
+    int currentLineNo;
+    private final String[] fields = new String[16];
+
+    public TsrgMappingParser(String filePath) {
+        this.filePath = filePath;
+    }
+    private void readLine() throws IOException {
+        currentLine = reader.readLine();
+        currentLineNo++;
+    }
+    // splits line at spaces and tabs, starting at index start; returns the number of fields
+    private int splitFields(int start) throws InvalidInputException {
+        String line = currentLine;
+        int n = 0;
+        int i = start;
+        while (i < line.length()) {
+            int j = i;
+            while (j < line.length() && line.charAt(j) != ' ' && line.charAt(j) != '\t') j++;
+            if (n == fields.length) throw new InvalidInputException(currentLineNo, "too many fields");
+            fields[n++] = line.substring(i, j);
+            i = j + 1;
+        }
+        return n;
+    }
+    @Override
+    public void accept(MappingVisitor visitor) throws IOException, InvalidInputException {
+        try (BufferedReader in = new BufferedReader(new FileReader(filePath))) {
+            reader = in;
+            currentLineNo = 0;
+            readLine();
+            int nNamespaces = 2;
+            if (currentLine != null && currentLine.startsWith("tsrg2 ")) {
+                nNamespaces = splitFields(6);
+                if (nNamespaces < 2) throw new InvalidInputException(currentLineNo, "at least two namespaces are required");
+                readLine();
+            }
+            int last = nNamespaces - 1;
+            boolean inClass = false;
+            while (currentLine != null) {
+                if (currentLine.isEmpty() || currentLine.startsWith("#")) {
+                    // do nothing
+                } else if (currentLine.startsWith("\t\t")) {
+                    // parameters and other member metadata
+                } else if (currentLine.charAt(0) == '\t') {
+                    if (!inClass) throw new InvalidInputException(currentLineNo, "member outside of a class");
+                    int n = splitFields(1);
+                    if (n == nNamespaces) {
+                        visitor.visitField(fields[0], fields[last]);
+                    } else if (n == nNamespaces + 1) {
+                        // name, descriptor, other names
+                        if (fields[1].startsWith("(")) {
+                            visitor.visitMethod(fields[0], fields[n - 1], fields[1], true);
+                        } else {
+                            visitor.visitField(fields[0], fields[n - 1]);
+                        }
+                    } else {
+                        throw new InvalidInputException(currentLineNo, "wrong number of fields");
+                    }
+                } else {
+                    int n = splitFields(0);
+                    if (n != nNamespaces) throw new InvalidInputException(currentLineNo, "wrong number of fields");
+                    if (fields[0].endsWith("/")) {
+                        inClass = false; // package
+                    } else {
+                        visitor.visitClass(fields[0], fields[last]);
+                        inClass = true;
+                    }
+                }
+                readLine();
+            }
+            visitor.visitEnd();
+        } finally {
+            reader = null;
+        }
+    }
+}
@@ -1,5 +1,8 @@
-import java.util.HashMap;
-import java.util.Map;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Calendar;
 
 public class Util {
     public static String encodeType(String s) {
@@ -49,63 +52,49 @@ public class Util {
         }
     }
 
-//    public static String mapSignature(String sig, Map<String, String> map) {
-//        int i = sig.indexOf('L');
-//        if (i < 0) return sig;
-//        StringBuilder sb = new StringBuilder(sig.substring(0, i+1));
-//        while (true) {
-//            // i points to 'L'
-//            int j = sig.indexOf(';', i + 1 /* right after 'L' */);
-//            String className = sig.substring(i + 1, j);
-//            String mappedClassName;
-//            if (map.containsKey(className)) {
-//                mappedClassName = map.get(className).replace('.', '/');
-//            } else {
-//                mappedClassName = className;
-//            }
-//            sb.append(mappedClassName);
-//            i = sig.indexOf('L', j + 1/* right after ';' */);
-//            if (i < 0) {
-//                sb.append(sig.substring(j));
-//                return sb.toString();
-//            }
-//            sb.append(sig.substring(j, i+1));
-//        }
-//    }
-
-    public static String mapSignature(String sig, Map<String, String> map) {
-        int i = sig.indexOf('L');
-        if (i < 0) return sig;
-        StringBuilder sb = new StringBuilder(sig.substring(0, i+1));
+    // reads the whole stream, size is only a hint for the initial buffer size
+    public static byte[] readFully(InputStream in, long size) throws IOException {
+        byte[] buf = new byte[(int) Math.max(Math.min(size, Integer.MAX_VALUE - 8), 16)];
+        int n = 0;
         while (true) {
-            // i points to 'L'
-            int j = i+1;
-            while (true) {
-                char c = sig.charAt(j);
-                if (c == ';' || c == '<' || c == '.') break;
-                j++;
-            }
-            String className = sig.substring(i + 1, j);
-            String mappedClassName;
-            if (map.containsKey(className)) {
-                mappedClassName = map.get(className);
-            } else {
-                mappedClassName = className;
-            }
-            sb.append(mappedClassName);
-            i = sig.indexOf('L', j + 1/* right after delimiter (one of ';' '<' '.') */);
-            if (i < 0) {
-                sb.append(sig.substring(j));
-                return sb.toString();
+            if (n == buf.length) {
+                int b = in.read();
+                if (b < 0) return buf;
+                buf = Arrays.copyOf(buf, buf.length * 2);
+                buf[n++] = (byte) b;
             }
-            sb.append(sig.substring(j, i+1));
+            int r = in.read(buf, n, buf.length - n);
+            if (r < 0) break;
+            n += r;
         }
+        return n == buf.length ? buf : Arrays.copyOf(buf, n);
     }
 
-    /*public static void main(String[] args) {
-        Map<String, String> map = new HashMap<>();
-        map.put("a", "com.example.A");
-        map.put("b", "com.example.B");
-        System.out.println(mapSignature("(ILa;[Lc<La;>;)Lb<LL;>;", map));
-    }*/
+    public static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    // MS-DOS date and time as stored in zip headers, date in the high 16 bits
+    public static long dosToJavaTime(int dosTime) {
+        Calendar c = Calendar.getInstance();
+        c.clear();
+        c.set((dosTime >>> 25) + 1980, ((dosTime >>> 21) & 0xf) - 1, (dosTime >>> 16) & 0x1f,
+                (dosTime >>> 11) & 0x1f, (dosTime >>> 5) & 0x3f, (dosTime << 1) & 0x3e);
+        return c.getTimeInMillis();
+    }
+
+    public static int javaToDosTime(long time) {
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(time);
+        int year = c.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16); // 1980-01-01 00:00:00
+        }
+        return (year - 1980) << 25 | (c.get(Calendar.MONTH) + 1) << 21 | c.get(Calendar.DAY_OF_MONTH) << 16
+                | c.get(Calendar.HOUR_OF_DAY) << 11 | c.get(Calendar.MINUTE) << 5 | c.get(Calendar.SECOND) >> 1;
+    }
 }
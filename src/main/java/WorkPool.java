@@ -0,0 +1,181 @@
+import org.apache.bcel.classfile.ClassFormatException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToLongFunction;
+
+/**
+ * A fixed set of worker threads that process lists of items. Items are sorted largest first and
+ * handed out from a shared queue in small batches, so that a thread which draws a huge class
+ * does not hold up the others at the end of a phase.
+ */
+public class WorkPool implements Closeable {
+    public interface Task<T> {
+        void run(T item) throws IOException;
+    }
+
+    // a batch is closed when it reaches either limit
+    private static final int MAX_BATCH_ITEMS = 64;
+    private static final int BATCHES_PER_THREAD = 16;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final int nThreads;
+    private final ExecutorService executor;
+    private final boolean ownsThreads;
+    private final RunReport report; // may be null
+
+    public WorkPool(int nThreads) {
+        this.nThreads = nThreads;
+        AtomicInteger threadNo = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(nThreads, r -> {
+            Thread t = new Thread(r, "worker-" + threadNo.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        ownsThreads = true;
+        report = null;
+    }
+
+    private WorkPool(WorkPool pool, RunReport report) {
+        nThreads = pool.nThreads;
+        executor = pool.executor;
+        ownsThreads = false;
+        this.report = report;
+    }
+
+    public int getThreadCount() {
+        return nThreads;
+    }
+
+    /**
+     * Returns a pool that runs on the same threads and records its {@link #run} calls as stages
+     * of the report. Several such pools can run at the same time; closing one does not stop the
+     * threads.
+     */
+    public WorkPool withReport(RunReport report) {
+        return new WorkPool(this, report);
+    }
+
+    /** CPU time of the calling thread in nanoseconds, or 0 if the JVM does not measure it. */
+    static long cpuTime() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    /** Per-thread timing of one {@link #run} call. */
+    public static class Stats {
+        public final String name;
+        public long wallNanos;
+        public int count; // of all items
+        public long size; // sum of the sizes of all items
+        public final long[] busyNanos;
+        public final long[] cpuNanos;
+        public final int[] items;
+
+        Stats(String name, int nThreads) {
+            this.name = name;
+            busyNanos = new long[nThreads];
+            cpuNanos = new long[nThreads];
+            items = new int[nThreads];
+        }
+
+        public void print() {
+            System.err.printf("%s: %dms wall\n", name, wallNanos / 1000000);
+            for (int i = 0; i < busyNanos.length; i++) {
+                System.err.printf("  thread %d: %d items, busy %dms, idle %dms, cpu %dms\n", i, items[i],
+                        busyNanos[i] / 1000000, (wallNanos - busyNanos[i]) / 1000000, cpuNanos[i] / 1000000);
+            }
+        }
+    }
+
+    /**
+     * Runs {@code task} on every item and waits until all of them are done. If a task fails, the
+     * remaining batches are skipped and the first failure is rethrown.
+     */
+    public <T> Stats run(String name, List<T> items, ToLongFunction<T> size, Task<T> task) throws IOException, InterruptedException {
+        RunReport.Stage stage = report != null ? report.begin(name) : null;
+        long start = System.nanoTime();
+        Stats stats = new Stats(name, nThreads);
+        stats.count = items.size();
+        for (T item : items) {
+            stats.size += size.applyAsLong(item);
+        }
+        List<List<T>> batches = makeBatches(items, size, stats.size);
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger threadIndex = new AtomicInteger();
+        Throwable[] error = new Throwable[1];
+        List<Future<?>> futures = new ArrayList<>(nThreads);
+        for (int t = 0; t < nThreads; t++) {
+            futures.add(executor.submit(() -> {
+                int me = threadIndex.getAndIncrement();
+                long cpu = cpuTime();
+                long busy = 0;
+                int n = 0;
+                int b;
+                while ((b = next.getAndIncrement()) < batches.size()) {
+                    long t0 = System.nanoTime();
+                    try {
+                        for (T item : batches.get(b)) {
+                            task.run(item);
+                            n++;
+                        }
+                    } catch (IOException | ClassFormatException e) {
+                        synchronized (error) {
+                            if (error[0] == null) error[0] = e;
+                        }
+                        next.set(batches.size());
+                    }
+                    busy += System.nanoTime() - t0;
+                }
+                stats.busyNanos[me] = busy;
+                stats.cpuNanos[me] = cpuTime() - cpu;
+                stats.items[me] = n;
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                if (cause instanceof Error) throw (Error) cause;
+                throw new IOException(cause);
+            }
+        }
+        stats.wallNanos = System.nanoTime() - start;
+        if (stage != null) stage.end(stats);
+        if (error[0] instanceof IOException) throw (IOException) error[0];
+        if (error[0] != null) throw new IOException(error[0].getMessage(), error[0]);
+        return stats;
+    }
+
+    private <T> List<List<T>> makeBatches(List<T> items, ToLongFunction<T> size, long total) {
+        List<T> sorted = new ArrayList<>(items);
+        sorted.sort(Comparator.comparingLong(size).reversed());
+        long target = Math.max(1, total / ((long) nThreads * BATCHES_PER_THREAD));
+        List<List<T>> batches = new ArrayList<>();
+        List<T> batch = new ArrayList<>();
+        long batchSize = 0;
+        for (T item : sorted) {
+            batch.add(item);
+            batchSize += size.applyAsLong(item);
+            if (batchSize >= target || batch.size() == MAX_BATCH_ITEMS) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+                batchSize = 0;
+            }
+        }
+        if (!batch.isEmpty()) batches.add(batch);
+        return batches;
+    }
+
+    @Override
+    public void close() {
+        if (ownsThreads) executor.shutdown();
+    }
+}